@@ -0,0 +1,36 @@
+package org.vaadin.rsa.quad;
+
+/**
+ * A bare point used in benchmarks, so that measurements do not depend on the domain classes.
+ * Points can be moved and have identity equality, as rides do.
+ */
+final class BenchmarkPoint implements HasPoint {
+    private double x;
+    private double y;
+
+    /**
+     * Create a point with given coordinates
+     * @param x coordinate
+     * @param y coordinate
+     */
+    BenchmarkPoint(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    @Override
+    public double x() {
+        return x;
+    }
+
+    @Override
+    public double y() {
+        return y;
+    }
+
+    @Override
+    public void moveTo(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+}
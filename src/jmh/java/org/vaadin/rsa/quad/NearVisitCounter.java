@@ -0,0 +1,48 @@
+package org.vaadin.rsa.quad;
+
+/**
+ * A visitor counting the tries visited by a search of near points, pruned as in {@code collectNear()}.
+ * Used to check that searches visit O(log n + k) tries, rather than the whole tree.
+ */
+class NearVisitCounter<T extends HasPoint> implements Visitor<T> {
+
+    private final double x;
+    private final double y;
+    private final double radius;
+    private long visited;
+
+    /**
+     * Create a counter for a search around given point
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param radius from given point
+     */
+    NearVisitCounter(double x, double y, double radius) {
+        this.x = x;
+        this.y = y;
+        this.radius = radius;
+    }
+
+    /**
+     * Number of tries visited so far
+     * @return number of tries
+     */
+    long getVisited() {
+        return visited;
+    }
+
+    @Override
+    public void visit(NodeTrie<T> node) {
+        visited++;
+        for (Trie<T> trie : node.tries) {
+            if (trie != null && trie.overlaps(x, y, radius)) {
+                trie.accept(this);
+            }
+        }
+    }
+
+    @Override
+    public void visit(LeafTrie<T> leaf) {
+        visited++;
+    }
+}
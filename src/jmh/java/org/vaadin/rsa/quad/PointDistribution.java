@@ -0,0 +1,89 @@
+package org.vaadin.rsa.quad;
+
+import java.util.Random;
+
+/**
+ * Distributions of points used to populate quad trees in benchmarks.
+ * <ul>
+ *   <li><b>UNIFORM</b><br>points spread evenly over the whole region</li>
+ *   <li><b>CLUSTERED</b><br>points concentrated around a few hotspots, as in city centres</li>
+ *   <li><b>LINE</b><br>degenerate case with all points on the diagonal of the region</li>
+ * </ul>
+ */
+public enum PointDistribution {
+    UNIFORM {
+        @Override
+        BenchmarkPoint next(Random random, double minX, double minY, double maxX, double maxY) {
+            return new BenchmarkPoint(between(random, minX, maxX), between(random, minY, maxY));
+        }
+    },
+    CLUSTERED {
+        @Override
+        BenchmarkPoint next(Random random, double minX, double minY, double maxX, double maxY) {
+            double[] hotspot = HOTSPOTS[random.nextInt(HOTSPOTS.length)];
+            double spreadX = (maxX - minX) * SPREAD;
+            double spreadY = (maxY - minY) * SPREAD;
+            double x = minX + hotspot[0] * (maxX - minX) + random.nextGaussian() * spreadX;
+            double y = minY + hotspot[1] * (maxY - minY) + random.nextGaussian() * spreadY;
+            return new BenchmarkPoint(clamp(x, minX, maxX), clamp(y, minY, maxY));
+        }
+    },
+    LINE {
+        @Override
+        BenchmarkPoint next(Random random, double minX, double minY, double maxX, double maxY) {
+            double fraction = random.nextDouble();
+            return new BenchmarkPoint(minX + fraction * (maxX - minX), minY + fraction * (maxY - minY));
+        }
+    };
+
+    /**
+     * Relative positions of hotspots in the region, used by {@link #CLUSTERED}
+     */
+    private static final double[][] HOTSPOTS = {
+            {0.50, 0.50}, {0.25, 0.30}, {0.70, 0.20}, {0.80, 0.75}, {0.30, 0.80}, {0.55, 0.65}
+    };
+
+    /**
+     * Standard deviation around each hotspot, relative to the region's dimensions
+     */
+    private static final double SPREAD = 0.01;
+
+    /**
+     * Generate a single point in given region
+     * @param random source of randomness
+     * @param minX smallest x coordinate
+     * @param minY smallest y coordinate
+     * @param maxX largest x coordinate
+     * @param maxY largest y coordinate
+     * @return point within region
+     */
+    abstract BenchmarkPoint next(Random random, double minX, double minY, double maxX, double maxY);
+
+    /**
+     * Generate several points in given region
+     * @param random source of randomness
+     * @param count number of points
+     * @param minX smallest x coordinate
+     * @param minY smallest y coordinate
+     * @param maxX largest x coordinate
+     * @param maxY largest y coordinate
+     * @return array of points within region
+     */
+    BenchmarkPoint[] generate(Random random, int count, double minX, double minY, double maxX, double maxY) {
+        BenchmarkPoint[] points = new BenchmarkPoint[count];
+
+        for (int i = 0; i < count; i++) {
+            points[i] = next(random, minX, minY, maxX, maxY);
+        }
+
+        return points;
+    }
+
+    private static double between(Random random, double min, double max) {
+        return min + random.nextDouble() * (max - min);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,282 @@
+package org.vaadin.rsa.quad;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the operations of {@link PointQuadtree}.
+ * Each benchmark runs on a tree populated with {@code size} points following a {@link PointDistribution},
+ * with buckets of given {@code capacity}. Run with {@code mvn -Pjmh compile exec:exec};
+ * use {@code -Djmh.args="-p size=1000,100000 PointQuadtreeBenchmark.findNear"} to select parameters and benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+@State(Scope.Benchmark)
+public class PointQuadtreeBenchmark {
+
+    static final double TOP_LEFT_X = -1000;
+    static final double TOP_LEFT_Y = 1000;
+    static final double BOTTOM_RIGHT_X = 1000;
+    static final double BOTTOM_RIGHT_Y = -1000;
+
+    static final long SEED = 42;
+
+    /**
+     * Number of points prepared for queries and updates (a power of 2, to cycle with a mask)
+     */
+    static final int POOL = 1024;
+
+    /**
+     * Number of points inserted or deleted in each invocation of {@link #insert(Fresh)} and {@link #delete(Stored)},
+     * not larger than the smallest size so that deleted points are distinct
+     */
+    static final int BATCH = 1000;
+
+    /**
+     * Number of iterations of batch benchmarks, each one running a single batch
+     */
+    static final int BATCH_ITERATIONS = 100;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int size;
+
+    @Param({"UNIFORM", "CLUSTERED", "LINE"})
+    PointDistribution distribution;
+
+    @Param({"4", "10", "32"})
+    int capacity;
+
+    @Param({"10"})
+    double radius;
+
+    /**
+     * Number of points requested by {@link #findNearest()}
+     */
+    @Param({"10"})
+    int k;
+
+    /**
+     * Distance of each move, as in consecutive location updates of a ride
+     */
+    @Param({"1"})
+    double step;
+
+    PointQuadtree<BenchmarkPoint> quadtree;
+    BenchmarkPoint[] stored;
+    BenchmarkPoint[] queries;
+    BenchmarkPoint[] twins;
+    int cursor;
+
+    /**
+     * Populate the quad tree and prepare points for queries
+     */
+    @Setup(Level.Trial)
+    public void populate() {
+        Random random = new Random(SEED);
+
+        Trie.setCapacity(capacity);
+        quadtree = new PointQuadtree<>(TOP_LEFT_X, TOP_LEFT_Y, BOTTOM_RIGHT_X, BOTTOM_RIGHT_Y);
+        stored = generate(random, size);
+
+        for (BenchmarkPoint point : stored) {
+            quadtree.insert(point);
+        }
+
+        queries = generate(random, POOL);
+        twins = new BenchmarkPoint[POOL];
+
+        for (int i = 0; i < POOL; i++) {
+            BenchmarkPoint point = stored[i % size];
+            twins[i] = new BenchmarkPoint(point.x(), point.y());
+        }
+    }
+
+    /**
+     * Generate points with the distribution of this benchmark
+     * @param random source of randomness
+     * @param count number of points
+     * @return array of points
+     */
+    BenchmarkPoint[] generate(Random random, int count) {
+        return distribution.generate(random, count, TOP_LEFT_X, BOTTOM_RIGHT_Y, BOTTOM_RIGHT_X, TOP_LEFT_Y);
+    }
+
+    /**
+     * Next index in the pool of prepared points
+     * @return index
+     */
+    int next() {
+        return cursor++ & (POOL - 1);
+    }
+
+    /**
+     * Points inserted by the {@link #insert(Fresh)} benchmark. They are deleted before each iteration,
+     * outside the measurement, so that each iteration inserts them in a tree with its original size.
+     */
+    @State(Scope.Benchmark)
+    public static class Fresh {
+        BenchmarkPoint[] pool;
+
+        @Setup(Level.Trial)
+        public void prepare(PointQuadtreeBenchmark benchmark) {
+            pool = benchmark.generate(new Random(SEED + 1), BATCH);
+        }
+
+        @Setup(Level.Iteration)
+        public void restore(PointQuadtreeBenchmark benchmark) {
+            for (BenchmarkPoint point : pool) {
+                benchmark.quadtree.delete(point);
+            }
+        }
+    }
+
+    /**
+     * Points removed by the {@link #delete(Stored)} benchmark. They are inserted again before each iteration,
+     * outside the measurement, so that each iteration deletes them from a tree with its original size.
+     */
+    @State(Scope.Benchmark)
+    public static class Stored {
+        BenchmarkPoint[] pool;
+
+        @Setup(Level.Trial)
+        public void prepare(PointQuadtreeBenchmark benchmark) {
+            if (benchmark.size < BATCH) {
+                throw new IllegalArgumentException("Size must be at least " + BATCH);
+            }
+            pool = Arrays.copyOf(benchmark.stored, BATCH);
+        }
+
+        @Setup(Level.Iteration)
+        public void restore(PointQuadtreeBenchmark benchmark) {
+            for (BenchmarkPoint point : pool) {
+                benchmark.quadtree.insert(point);
+            }
+        }
+    }
+
+    /**
+     * Counters of tries visited and points found by {@link #findNearVisits(NearVisits)}.
+     * Divide {@code tries} and {@code found} by {@code queries} to get averages per search.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class NearVisits {
+        public long queries;
+        public long tries;
+        public long found;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            queries = 0;
+            tries = 0;
+            found = 0;
+        }
+    }
+
+    /**
+     * Insert a batch of new points, in a single shot per iteration since the tree is restored between batches
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(BATCH)
+    @Warmup(iterations = BATCH_ITERATIONS)
+    @Measurement(iterations = BATCH_ITERATIONS)
+    public void insert(Fresh fresh) {
+        for (BenchmarkPoint point : fresh.pool) {
+            quadtree.insert(point);
+        }
+    }
+
+    @Benchmark
+    public void insertReplace() {
+        quadtree.insertReplace(twins[next()]);
+    }
+
+    @Benchmark
+    public BenchmarkPoint find() {
+        return quadtree.find(twins[next()]);
+    }
+
+    /**
+     * Delete a batch of stored points, in a single shot per iteration since the tree is restored between batches
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(BATCH)
+    @Warmup(iterations = BATCH_ITERATIONS)
+    @Measurement(iterations = BATCH_ITERATIONS)
+    public void delete(Stored stored) {
+        for (BenchmarkPoint point : stored.pool) {
+            quadtree.delete(point);
+        }
+    }
+
+    /**
+     * Move a stored point back and forth, updating it in place when it stays in the same leaf
+     */
+    @Benchmark
+    public void move() {
+        int index = next();
+        BenchmarkPoint point = stored[index % size];
+        double offset = (cursor & POOL) == 0 ? step : -step;
+        double x = Math.max(TOP_LEFT_X, Math.min(BOTTOM_RIGHT_X, point.x() + offset));
+
+        quadtree.move(point, x, point.y());
+    }
+
+    /**
+     * Same as {@link #move()} with a delete followed by an insert, for comparison
+     */
+    @Benchmark
+    public void deleteInsert() {
+        int index = next();
+        BenchmarkPoint point = stored[index % size];
+        double offset = (cursor & POOL) == 0 ? step : -step;
+        double x = Math.max(TOP_LEFT_X, Math.min(BOTTOM_RIGHT_X, point.x() + offset));
+
+        quadtree.delete(point);
+        point.moveTo(x, point.y());
+        quadtree.insert(point);
+    }
+
+    @Benchmark
+    public Set<BenchmarkPoint> findNear() {
+        BenchmarkPoint query = queries[next()];
+        return quadtree.findNear(query.x(), query.y(), radius);
+    }
+
+    @Benchmark
+    public List<BenchmarkPoint> findNearest() {
+        BenchmarkPoint query = queries[next()];
+        return quadtree.findNearest(query.x(), query.y(), k, radius, point -> true);
+    }
+
+    /**
+     * Same as {@link #findNear()}, also counting the tries visited to check pruning
+     */
+    @Benchmark
+    public Set<BenchmarkPoint> findNearVisits(NearVisits visits) {
+        BenchmarkPoint query = queries[next()];
+        NearVisitCounter<BenchmarkPoint> counter = new NearVisitCounter<>(query.x(), query.y(), radius);
+        Set<BenchmarkPoint> near = quadtree.findNear(query.x(), query.y(), radius);
+
+        quadtree.top.accept(counter);
+        visits.queries++;
+        visits.tries += counter.getVisited();
+        visits.found += near.size();
+        return near;
+    }
+
+    @Benchmark
+    public Set<BenchmarkPoint> getAll() {
+        return quadtree.getAll();
+    }
+}
@@ -0,0 +1,105 @@
+package org.vaadin.rsa.quad;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of building a {@link PointQuadtree}, either by inserting points one by one or
+ * with {@link PointQuadtree#bulkLoad(java.util.Collection)}, reporting the memory allocated per trie.
+ * Points are generated before the measurement, hence the bytes reported are those of the tries
+ * (nodes, leaves and their arrays) and of transient leaves replaced on splits.
+ * Divide {@code bytes} by {@code tries} to get the average footprint of a trie.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+@State(Scope.Benchmark)
+public class QuadtreeFootprintBenchmark {
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    @Param({"UNIFORM", "CLUSTERED", "LINE"})
+    PointDistribution distribution;
+
+    @Param({"4", "10", "32"})
+    int capacity;
+
+    static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    BenchmarkPoint[] points;
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        Trie.setCapacity(capacity);
+        points = distribution.generate(new Random(PointQuadtreeBenchmark.SEED), size,
+                PointQuadtreeBenchmark.TOP_LEFT_X, PointQuadtreeBenchmark.BOTTOM_RIGHT_Y,
+                PointQuadtreeBenchmark.BOTTOM_RIGHT_X, PointQuadtreeBenchmark.TOP_LEFT_Y);
+    }
+
+    /**
+     * Counters of tries built and bytes allocated by {@link #build(Footprint)} and {@link #bulkLoad(Footprint)}
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long tries;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            tries = 0;
+            bytes = 0;
+        }
+    }
+
+    @Benchmark
+    public PointQuadtree<BenchmarkPoint> build(Footprint footprint) {
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        PointQuadtree<BenchmarkPoint> quadtree = new PointQuadtree<>(
+                PointQuadtreeBenchmark.TOP_LEFT_X, PointQuadtreeBenchmark.TOP_LEFT_Y,
+                PointQuadtreeBenchmark.BOTTOM_RIGHT_X, PointQuadtreeBenchmark.BOTTOM_RIGHT_Y);
+
+        for (BenchmarkPoint point : points) {
+            quadtree.insert(point);
+        }
+
+        return count(quadtree, footprint, before);
+    }
+
+    /**
+     * Same as {@link #build(Footprint)} with a bulk load. Bytes allocated by fork-join workers are not counted.
+     */
+    @Benchmark
+    public PointQuadtree<BenchmarkPoint> bulkLoad(Footprint footprint) {
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        PointQuadtree<BenchmarkPoint> quadtree = PointQuadtree.fromPoints(
+                PointQuadtreeBenchmark.TOP_LEFT_X, PointQuadtreeBenchmark.TOP_LEFT_Y,
+                PointQuadtreeBenchmark.BOTTOM_RIGHT_X, PointQuadtreeBenchmark.BOTTOM_RIGHT_Y, List.of(points));
+
+        return count(quadtree, footprint, before);
+    }
+
+    /**
+     * Add the tries of given quad tree and the bytes allocated since given count to the footprint
+     * @param quadtree built
+     * @param footprint counters
+     * @param before bytes allocated by this thread before building
+     * @return the quad tree
+     */
+    private PointQuadtree<BenchmarkPoint> count(PointQuadtree<BenchmarkPoint> quadtree, Footprint footprint,
+                                                long before) {
+        QuadtreeStatistics statistics = quadtree.getStatistics();
+
+        footprint.bytes += THREADS.getCurrentThreadAllocatedBytes() - before;
+        footprint.tries += statistics.nodes() + statistics.leaves();
+        return quadtree;
+    }
+}
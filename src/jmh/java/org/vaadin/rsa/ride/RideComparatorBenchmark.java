@@ -0,0 +1,120 @@
+package org.vaadin.rsa.ride;
+
+import org.openjdk.jmh.annotations.*;
+import org.vaadin.rsa.RideSharingAppException;
+import org.vaadin.rsa.match.Location;
+import org.vaadin.rsa.match.PreferredMatch;
+import org.vaadin.rsa.match.RideMatch;
+import org.vaadin.rsa.user.User;
+import org.vaadin.rsa.user.UserStars;
+import org.vaadin.rsa.user.Users;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks sorting the matches proposed to a passenger, as {@code Matcher.updateRide} does.
+ * Compares {@link Ride#getComparator()}, that scores matches on each comparison,
+ * with {@link Ride#getKeyComparator()}, that scores each match once.
+ * Matches are created on each invocation, with both comparators, since the key comparator keeps keys in matches.
+ * Drivers have {@code reviews} stars each, hence scoring by average stars is proportional to {@code reviews}.
+ * Run with {@code mvn -Pjmh compile exec:exec -Djmh.args="RideComparatorBenchmark"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class RideComparatorBenchmark {
+
+    static final long SEED = 42;
+    static final double RADIUS = 10;
+
+    @Param({"10", "1000", "10000"})
+    int reviews;
+
+    @Param({"100", "500"})
+    int candidates;
+
+    @Param({"BETTER", "CLOSER", "CHEAPER"})
+    PreferredMatch preference;
+
+    Users users;
+    Ride passengerRide;
+    List<Ride> driverRides;
+
+    /**
+     * Register a passenger and drivers with reviews, each with a ride matching the passenger's ride
+     * @throws IOException if the users file cannot be created
+     * @throws RideSharingAppException on error saving users
+     */
+    @Setup(Level.Trial)
+    public void populate() throws IOException, RideSharingAppException {
+        Random random = new Random(SEED);
+        UserStars[] stars = UserStars.values();
+        File file = File.createTempFile("users", ".ser");
+
+        file.delete();
+        Users.setUsersFile(file);
+        users = Users.getInstance();
+
+        Location from = new Location(0, 0);
+        Location to = new Location(100, 100);
+        User passenger = users.register("P0", "Passenger");
+
+        passenger.setPreferredMatch(preference);
+        passengerRide = new Ride(passenger, from, to, null, 0);
+        driverRides = new ArrayList<>(candidates);
+
+        for (int i = 0; i < candidates; i++) {
+            User driver = users.register("D" + i, "Driver " + i);
+
+            for (int j = 0; j < reviews; j++) {
+                driver.addStars(stars[random.nextInt(stars.length)], RideRole.DRIVER);
+            }
+
+            Location current = new Location(random.nextDouble() * RADIUS, random.nextDouble() * RADIUS);
+            driverRides.add(new Ride(driver, current, to, "PLATE" + i, random.nextInt(20)));
+        }
+    }
+
+    /**
+     * Remove users and their file
+     */
+    @TearDown(Level.Trial)
+    public void clear() {
+        users.reset();
+    }
+
+    @Benchmark
+    public List<RideMatch> sortWithComparator() {
+        return sort(passengerRide.getComparator());
+    }
+
+    @Benchmark
+    public List<RideMatch> sortWithKeyComparator() {
+        return sort(passengerRide.getKeyComparator());
+    }
+
+    /**
+     * Create a match of the passenger with each driver and sort them with given comparator
+     * @param comparator of matches
+     * @return sorted matches
+     */
+    private List<RideMatch> sort(Comparator<RideMatch> comparator) {
+        List<RideMatch> sorted = new ArrayList<>(candidates);
+
+        for (Ride driverRide : driverRides) {
+            sorted.add(new RideMatch(driverRide, passengerRide));
+        }
+
+        sorted.sort(comparator);
+        return sorted;
+    }
+}
@@ -0,0 +1,154 @@
+package org.vaadin.rsa.user;
+
+import org.openjdk.jmh.annotations.*;
+import org.vaadin.rsa.match.PreferredMatch;
+import org.vaadin.rsa.ride.RideRole;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks encoding and decoding all users of a snapshot with each {@link UserCodec},
+ * and with a single {@link ObjectOutputStream} of a map of users, as {@link Users} were serialized before codecs.
+ * Users have reviews, some cars with common makes and colors, and a preference, and are encoded in memory,
+ * hence file I/O is not measured. The {@code bytes} counter is the size of the encoded users.
+ * Run with {@code mvn -Pjmh compile exec:exec -Djmh.args="UserCodecBenchmark"}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class UserCodecBenchmark {
+
+    static final long SEED = 42;
+    static final String[] MAKES = { "Opel", "Ford", "VW", "Fiat", "Renault" };
+    static final String[] MODELS = { "Astra", "Focus", "Clio", "Corsa", "Golf" };
+    static final String[] COLORS = { "Black", "White", "Red", "Blue", "Green" };
+
+    /**
+     * Formats compared: the codecs and a single object stream
+     */
+    public enum Format {
+        BINARY, SERIAL, OBJECT_STREAM
+    }
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"BINARY", "SERIAL", "OBJECT_STREAM"})
+    Format format;
+
+    List<User> users;
+    HashMap<String, User> map;
+    byte[] encoded;
+
+    /**
+     * Size of encoded users
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Encoded {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Create users, and encode them to be decoded
+     * @throws IOException on encoding error
+     */
+    @Setup(Level.Trial)
+    public void populate() throws IOException {
+        Random random = new Random(SEED);
+        UserStars[] stars = UserStars.values();
+        PreferredMatch[] preferences = PreferredMatch.values();
+
+        users = new ArrayList<>(size);
+        map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            User user = new User("U" + i, "User " + i);
+
+            for (int j = random.nextInt(3); j > 0; j--) {
+                user.putCar(new Car("PLATE" + i + "-" + j, MAKES[random.nextInt(MAKES.length)],
+                        MODELS[random.nextInt(MODELS.length)], COLORS[random.nextInt(COLORS.length)]));
+            }
+            for (int j = random.nextInt(50); j > 0; j--) {
+                user.tallyStars(stars[random.nextInt(stars.length)],
+                        random.nextBoolean() ? RideRole.DRIVER : RideRole.PASSENGER);
+            }
+            user.putPreferredMatch(preferences[random.nextInt(preferences.length)]);
+            users.add(user);
+            map.put(user.getNick(), user);
+        }
+
+        encoded = encode().toByteArray();
+    }
+
+    @Benchmark
+    public int encode(Encoded counter) throws IOException {
+        int bytes = encode().size();
+
+        counter.bytes += bytes;
+        return bytes;
+    }
+
+    @Benchmark
+    public int decode() throws IOException, ClassNotFoundException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(encoded)));
+
+        if (format == Format.OBJECT_STREAM) {
+            try (ObjectInputStream objectInput = new ObjectInputStream(input)) {
+                return ((HashMap<?, ?>) objectInput.readObject()).size();
+            }
+        }
+
+        UserCodec codec = codec();
+        int count = 0;
+
+        for (int i = 0; i < size; i++) {
+            count += codec.decode(input).getCars().size();
+        }
+        return count;
+    }
+
+    /**
+     * Encode all users in the format being benchmarked
+     * @return encoded users
+     * @throws IOException on encoding error
+     */
+    private ByteArrayOutputStream encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(bytes))) {
+            if (format == Format.OBJECT_STREAM) {
+                try (ObjectOutputStream objectOutput = new ObjectOutputStream(output)) {
+                    objectOutput.writeObject(map);
+                }
+            } else {
+                UserCodec codec = codec();
+
+                for (User user : users) {
+                    codec.encode(user, output);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Codec of format being benchmarked
+     * @return codec
+     */
+    private UserCodec codec() {
+        return format == Format.BINARY ? new BinaryUserCodec() : new SerialUserCodec();
+    }
+}
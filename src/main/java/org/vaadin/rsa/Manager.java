@@ -10,18 +10,32 @@ import org.vaadin.rsa.user.UserStars;
 import org.vaadin.rsa.user.Users;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * An instance of this class is responsible for managing the ride-sharing service,
  * handling user requests and matching their rides. The methods of this class are
  * those needed by web client thus it follows the Facade design pattern.
  * It also follows the Singleton design pattern to provide a single instance of this class to the application
+ * <p>Stale rides are periodically evicted from the matcher by a background daemon thread.
  */
 public class Manager {
+    private static final int MATCHER_STRIPES = 8;
+    private static final long SWEEP_PERIOD = 60_000;
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ride-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private static Manager instance;
     private static Matcher matcher;
     private static Users users;
+    private static ScheduledFuture<?> sweeper;
 
     /**
      * Private constructor to enforce Singleton pattern
@@ -35,10 +49,10 @@ public class Manager {
      * @return instance of this class
      * @throws RideSharingAppException if I/O error occurs reading users serialization
      */
-    public static Manager getInstance() throws RideSharingAppException {
+    public static synchronized Manager getInstance() throws RideSharingAppException {
         if (instance == null) {
             instance = new Manager();
-            matcher = new Matcher();
+            setMatcher(new Matcher(MATCHER_STRIPES));
             users = Users.getInstance();
         }
 
@@ -50,10 +64,23 @@ public class Manager {
      */
     void reset() {
         instance = null;
-        matcher = new Matcher();
+        setMatcher(new Matcher(MATCHER_STRIPES));
         users.reset();
     }
 
+    /**
+     * Replace the matcher, evicting stale rides of the new one instead of the previous one
+     * @param newMatcher to use
+     */
+    private static void setMatcher(Matcher newMatcher) {
+        if (sweeper != null) {
+            sweeper.cancel(false);
+        }
+
+        matcher = newMatcher;
+        sweeper = matcher.startSweeper(SWEEPER, SWEEP_PERIOD);
+    }
+
     /**
      * Register a player with given nick and name. Changes are stored in serialization file
      * @param nick of user
@@ -139,10 +166,32 @@ public class Manager {
         return matcher.updateRide(rideId, current);
     }
 
+    /**
+     * Update current location of user and receive only the best proposed ride matches
+     * @param rideId of ride to update
+     * @param current location of user
+     * @param limit maximum number of ride matches
+     * @return A {@link Set} with at most limit {@link RideMatch}
+     */
+    public Set<RideMatch> updateRide(long rideId, Location current, int limit) {
+        return matcher.updateRide(rideId, current, limit);
+    }
+
+    /**
+     * Update current locations of several rides at once and receive their proposed ride matches
+     * @param locations map from ids of rides to update to current locations of their users
+     * @return A {@link Map} from ride ids to their {@link Set} of {@link RideMatch}
+     */
+    public Map<Long, ? extends Set<RideMatch>> updateRides(Map<Long, Location> locations) {
+        return matcher.updateRides(locations);
+    }
+
     /**
      * Accept a match.
      * @param rideId id of the ride to match
      * @param matchId id of the match to consider
+     * @throws org.vaadin.rsa.match.ExpiredMatchException if the match is no longer proposed
+     * @throws IllegalStateException if either ride of the match is already matched with another ride
      */
     public void acceptMatch(long rideId, long matchId) {
         matcher.acceptMatch(rideId, matchId);
@@ -152,8 +201,9 @@ public class Manager {
      * Conclude a ride and provide feedback on the other partner
      * @param rideId of the ride to conclude
      * @param classification of the ride partner (in stars)
+     * @throws RideSharingAppException if the ride is unknown, possibly evicted, or not matched
      */
-    public void concludeRide(long rideId, UserStars classification) {
+    public void concludeRide(long rideId, UserStars classification) throws RideSharingAppException {
         matcher.concludeRide(rideId, classification);
     }
 
@@ -0,0 +1,117 @@
+package org.vaadin.rsa.match;
+
+import org.vaadin.rsa.quad.PointQuadtree;
+import org.vaadin.rsa.quad.Trie;
+import org.vaadin.rsa.ride.Ride;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * An index of rides by current location and destination, used by {@link Matcher}.
+ * Destinations are bucketed in a grid of squares, and each bucket has a quad tree with the current locations
+ * of the rides going to that square. Hence, searches for rides near a location going to a destination
+ * only visit the quad trees of buckets near that destination.
+ * <p>Quad trees are created on demand, when the first ride to their bucket is inserted.
+ * The index is thread safe if the quad trees created by the given factory are.
+ * The destination of a ride must not change while it is in the index.
+ */
+class DestinationIndex {
+
+    private final Supplier<PointQuadtree<Ride>> factory;
+    private final double side;
+    private final Map<Bucket, PointQuadtree<Ride>> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Create an index with given factory of quad trees and side of destination buckets
+     * @param factory of quad trees for current locations
+     * @param side of squares bucketing destinations
+     */
+    DestinationIndex(Supplier<PointQuadtree<Ride>> factory, double side) {
+        this.factory = factory;
+        this.side = side;
+    }
+
+    /**
+     * A square with given column and row in the grid of destinations
+     * @param column of square
+     * @param row of square
+     */
+    private record Bucket(long column, long row) {
+    }
+
+    /**
+     * Bucket of given destination
+     * @param to destination
+     * @return bucket
+     */
+    private Bucket bucketOf(Location to) {
+        return new Bucket((long) Math.floor(to.x() / side), (long) Math.floor(to.y() / side));
+    }
+
+    /**
+     * Insert given ride, in the quad tree of the bucket of its destination
+     * @param ride to insert
+     */
+    void insert(Ride ride) {
+        buckets.computeIfAbsent(bucketOf(ride.getTo()), bucket -> factory.get()).insert(ride);
+    }
+
+    /**
+     * Move given ride to new current location, inserting it if it is absent
+     * @param ride to move
+     * @param x new x coordinate
+     * @param y new y coordinate
+     */
+    void move(Ride ride, double x, double y) {
+        buckets.computeIfAbsent(bucketOf(ride.getTo()), bucket -> factory.get()).move(ride, x, y);
+    }
+
+    /**
+     * Delete given ride, if it is in the index
+     * @param ride to delete
+     */
+    void delete(Ride ride) {
+        PointQuadtree<Ride> quadtree = buckets.get(bucketOf(ride.getTo()));
+
+        if (quadtree != null) {
+            quadtree.delete(ride);
+        }
+    }
+
+    /**
+     * Apply given action to each ride currently within radius of (x,y) and going to within toRadius of given destination.
+     * Only the quad trees of buckets overlapping the bounding box of the destination circle are searched.
+     * @param x coordinate of current location
+     * @param y coordinate of current location
+     * @param radius from current location
+     * @param to destination
+     * @param toRadius from destination
+     * @param action to apply to each ride
+     */
+    void forEachNear(double x, double y, double radius, Location to, double toRadius, Consumer<Ride> action) {
+        long fromColumn = (long) Math.floor((to.x() - toRadius) / side);
+        long toColumn = (long) Math.floor((to.x() + toRadius) / side);
+        long fromRow = (long) Math.floor((to.y() - toRadius) / side);
+        long toRow = (long) Math.floor((to.y() + toRadius) / side);
+        double squaredToRadius = toRadius * toRadius;
+
+        for (long column = fromColumn; column <= toColumn; column++) {
+            for (long row = fromRow; row <= toRow; row++) {
+                PointQuadtree<Ride> quadtree = buckets.get(new Bucket(column, row));
+
+                if (quadtree != null) {
+                    quadtree.forEachNear(x, y, radius, ride -> {
+                        Location other = ride.getTo();
+
+                        if (Trie.getSquaredDistance(to.x(), to.y(), other.x(), other.y()) <= squaredToRadius) {
+                            action.accept(ride);
+                        }
+                    });
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.vaadin.rsa.match;
+
+/**
+ * Exception raised when accepting a match that is no longer proposed, either because it expired
+ * or because it was evicted to bound the memory used by proposals. Users should update their ride
+ * to receive fresh proposals. Since it extends {@link RuntimeException}, it is not mandatory to handle
+ * this kind of exception.
+ */
+public class ExpiredMatchException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long matchId;
+
+    /**
+     * Create an exception for given match identifier
+     * @param matchId of match no longer proposed
+     */
+    public ExpiredMatchException(long matchId) {
+        super("Ride match " + matchId + " has expired or is unknown");
+        this.matchId = matchId;
+    }
+
+    /**
+     * Identifier of the match no longer proposed
+     * @return match identifier
+     */
+    public long getMatchId() {
+        return matchId;
+    }
+}
@@ -1,12 +1,21 @@
 package org.vaadin.rsa.match;
 
+import org.vaadin.rsa.RideSharingAppException;
 import org.vaadin.rsa.quad.PointQuadtree;
+import org.vaadin.rsa.quad.StripedPointQuadtree;
+import org.vaadin.rsa.quad.Trie;
 import org.vaadin.rsa.ride.Ride;
+import org.vaadin.rsa.ride.RideRole;
 import org.vaadin.rsa.user.User;
 import org.vaadin.rsa.user.UserStars;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
 
 /**
  * A matcher of nearby driver and passenger rides. An instance of this class will match a pair of rides that:
@@ -17,23 +26,76 @@ import java.util.*;
  *   <li>have complementary roles (driver and passenger)</li>
  * </ul>
  * Matching occurs when rides positions are updated and use quad trees {@link org.vaadin.rsa.quad}
- * to locate matches currently in nearby locations.
+ * to locate matches currently in nearby locations. Rides are indexed by destination in a {@link DestinationIndex},
+ * hence only rides going to nearby destinations are considered.
+ * There is an index for each {@link RideRole}, and rides are searched only in the index of the other role.
+ * <p>Matchers created with a number of stripes are thread safe: rides and matches are kept in concurrent maps,
+ * quad trees are {@link StripedPointQuadtree} locked by region, and each ride is updated under its own lock.
+ * Hence, many sessions can update rides concurrently.
+ * <p>Proposed matches are kept in a {@link ProposalStore}. Those not accepted within {@link #getProposalTimeout()}
+ * expire, and the oldest are evicted when there are more than {@link #getMaxProposals()},
+ * hence memory is bounded even if most proposals are ignored. Accepting them raises {@link ExpiredMatchException}.
+ * <p>Rides are evicted by {@link #evictRides()}, usually run periodically by {@link #startSweeper}:
+ * concluded rides after {@link #getConcludedGracePeriod()}, unmatched rides not updated
+ * within {@link #getIdleTimeout()} and matched rides not concluded nor updated within {@link #getMatchedTimeout()}.
+ * Hence, only active rides are kept and searched.
  */
 public class Matcher implements Serializable {
 
-    private final PointQuadtree<Ride> quadtree;
+    /**
+     * Number of destination buckets in each dimension of the matching region
+     */
+    static final int DESTINATION_STRIPES = 16;
+
+    private final Map<RideRole, DestinationIndex> indexes = new EnumMap<>(RideRole.class);
     private static Location topLeft = new Location(-1000, 1000);
     private static Location bottomRight = new Location(1000, -1000);
     private static double radius = 10;
+    private static long proposalTimeout = 60_000;
+    private static int maxProposals = 100_000;
+    private static long concludedGracePeriod = 5 * 60_000;
+    private static long idleTimeout = 30 * 60_000;
+    private static long matchedTimeout = 12 * 60 * 60_000;
+    private static final Map<RideRole, Integer> capacities = new EnumMap<>(RideRole.class);
 
-    private final Map<Long, Ride> rides = new HashMap<>();
-    private final Map<Long, RideMatch> rideMatches = new HashMap<>();
+    private final Map<Long, Ride> rides = new ConcurrentHashMap<>();
+    private final ProposalStore proposals = new ProposalStore(proposalTimeout, maxProposals);
 
     /**
-     * Constructs a ride matcher.
+     * Constructs a ride matcher for use by a single thread.
      */
     public Matcher() {
-        quadtree = new PointQuadtree<>(topLeft.x(), topLeft.y(), bottomRight.x(), bottomRight.y());
+        for (RideRole role : RideRole.values()) {
+            int capacity = getCapacity(role);
+
+            indexes.put(role, new DestinationIndex(
+                    () -> new PointQuadtree<>(topLeft.x(), topLeft.y(), bottomRight.x(), bottomRight.y(), capacity),
+                    getDestinationSide()));
+        }
+    }
+
+    /**
+     * Constructs a thread safe ride matcher. The matching region is split in stripes &times; stripes tiles,
+     * each locked independently.
+     * @param stripes number of tiles in each dimension of the matching region
+     */
+    public Matcher(int stripes) {
+        for (RideRole role : RideRole.values()) {
+            int capacity = getCapacity(role);
+
+            indexes.put(role, new DestinationIndex(
+                    () -> new StripedPointQuadtree<>(topLeft.x(), topLeft.y(), bottomRight.x(), bottomRight.y(),
+                            stripes, capacity),
+                    getDestinationSide()));
+        }
+    }
+
+    /**
+     * Side of the squares bucketing destinations, with {@link #DESTINATION_STRIPES} in the width of the region
+     * @return side of destination buckets
+     */
+    private static double getDestinationSide() {
+        return (bottomRight.x() - topLeft.x()) / DESTINATION_STRIPES;
     }
 
     /**
@@ -84,6 +146,115 @@ public class Matcher implements Serializable {
         Matcher.radius = radius;
     }
 
+    /**
+     * Time for accepting a proposed match, after which it expires
+     * @return timeout in milliseconds
+     */
+    public static long getProposalTimeout() {
+        return proposalTimeout;
+    }
+
+    /**
+     * Set time for accepting a proposed match, after which it expires, used by matchers created afterwards.
+     * @param proposalTimeout in milliseconds
+     */
+    public static void setProposalTimeout(long proposalTimeout) {
+        Matcher.proposalTimeout = proposalTimeout;
+    }
+
+    /**
+     * Maximum number of pending proposed matches, after which the oldest are evicted
+     * @return maximum number of proposals
+     */
+    public static int getMaxProposals() {
+        return maxProposals;
+    }
+
+    /**
+     * Set maximum number of pending proposed matches, used by matchers created afterwards.
+     * @param maxProposals maximum number of proposals
+     */
+    public static void setMaxProposals(int maxProposals) {
+        Matcher.maxProposals = maxProposals;
+    }
+
+    /**
+     * Time that concluded rides are kept, after which they are evicted
+     * @return grace period in milliseconds
+     */
+    public static long getConcludedGracePeriod() {
+        return concludedGracePeriod;
+    }
+
+    /**
+     * Set time that concluded rides are kept, after which they are evicted
+     * @param concludedGracePeriod in milliseconds
+     */
+    public static void setConcludedGracePeriod(long concludedGracePeriod) {
+        Matcher.concludedGracePeriod = concludedGracePeriod;
+    }
+
+    /**
+     * Time without updates after which unmatched rides are considered abandoned and evicted
+     * @return idle timeout in milliseconds
+     */
+    public static long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Set time without updates after which unmatched rides are considered abandoned and evicted
+     * @param idleTimeout in milliseconds
+     */
+    public static void setIdleTimeout(long idleTimeout) {
+        Matcher.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Time after being matched, or last updated, after which matched rides that were not concluded
+     * are considered abandoned and evicted
+     * @return matched timeout in milliseconds
+     */
+    public static long getMatchedTimeout() {
+        return matchedTimeout;
+    }
+
+    /**
+     * Set time after being matched, or last updated, after which matched rides that were not concluded
+     * are considered abandoned and evicted
+     * @param matchedTimeout in milliseconds
+     */
+    public static void setMatchedTimeout(long matchedTimeout) {
+        Matcher.matchedTimeout = matchedTimeout;
+    }
+
+    /**
+     * Statistics on the proposed matches of this matcher
+     * @return hits, misses, expirations and evictions of proposals
+     */
+    public ProposalStatistics getProposalStatistics() {
+        return proposals.getStatistics();
+    }
+
+    /**
+     * Capacity of the buckets of quad trees indexing rides with given role
+     * @param role of rides
+     * @return capacity of buckets
+     */
+    public static int getCapacity(RideRole role) {
+        return capacities.getOrDefault(role, Trie.getCapacity());
+    }
+
+    /**
+     * Set capacity of the buckets of quad trees indexing rides with given role, used by matchers created afterwards.
+     * Roles with many more rides, such as passengers at peak hours, may use larger buckets to keep trees shallow.
+     * @param role of rides
+     * @param capacity of buckets
+     */
+    public static void setCapacity(RideRole role, int capacity) {
+        capacities.put(role, capacity);
+    }
+
     /**
      * Add a ride to the matcher
      * @param user providing or requiring a ride
@@ -95,9 +266,11 @@ public class Matcher implements Serializable {
      */
     public long addRide(User user, Location from, Location to, String plate, float cost) {
         Ride ride = new Ride(user, from, to, plate, cost);
-        rides.put(ride.getId(), ride);
 
-        quadtree.insert(ride);
+        synchronized (ride) {
+            rides.put(ride.getId(), ride);
+            indexes.get(ride.getRideRole()).insert(ride);
+        }
         return ride.getId();
     }
 
@@ -110,56 +283,374 @@ public class Matcher implements Serializable {
      * @return
      */
     public SortedSet<RideMatch> updateRide(long rideId, Location current) {
-        Ride ride = rides.get(rideId);
-        if (ride == null || ride.isMatched())
+        Ride ride = moveRide(rideId, current);
+        if (ride == null)
+            return new TreeSet<>();
+
+        SortedSet<RideMatch> matches = new TreeSet<>(getMatchComparator(ride));
+
+        DestinationIndex others = indexes.get(ride.getRideRole().other());
+
+        others.forEachNear(current.x(), current.y(), radius, ride.getTo(), radius, other -> {
+            if (RideMatch.matchable(ride, other)) {
+                matches.add(propose(ride, other));
+            }
+        });
+
+        return matches;
+    }
+
+    /**
+     * Update current location of ride with given id and return only its best proposed matches,
+     * as the first ones of {@link #updateRide(long, Location)}.
+     * <p>Each candidate is scored once with {@link Ride#getScorer()} and kept in a heap bounded to limit candidates,
+     * with the worst on top. Hence, only the best candidates become proposed {@link RideMatch} instances,
+     * and the cost is O(n log limit) for n candidates, instead of sorting all of them with the ride's comparator.
+     * @param rideId of ride to update
+     * @param current location of ride
+     * @param limit maximum number of matches to return
+     * @return at most limit best matches, sorted with the ride's key comparator and then by match id
+     */
+    public SortedSet<RideMatch> updateRide(long rideId, Location current, int limit) {
+        Ride ride = moveRide(rideId, current);
+        if (ride == null || limit <= 0)
             return new TreeSet<>();
 
-        // Remove, update the position and reinsert in the quadtree
-        quadtree.delete(ride);
-        ride.setCurrent(current);
-        quadtree.insert(ride);
+        ToDoubleFunction<Ride> scorer = ride.getScorer();
+        PriorityQueue<Candidate> best = new PriorityQueue<>(limit + 1,
+                Comparator.comparingDouble(Candidate::key).reversed());
 
-        Set<Ride> nearby = quadtree.findNear(current.x(), current.y(), radius);
-        SortedSet<RideMatch> matches = new TreeSet<>(ride.getComparator());
+        DestinationIndex others = indexes.get(ride.getRideRole().other());
 
-        for (Ride other : nearby) {
-            RideMatch match = new RideMatch(ride, other);
+        others.forEachNear(current.x(), current.y(), radius, ride.getTo(), radius, other -> {
+            if (RideMatch.matchable(ride, other)) {
+                double key = scorer.applyAsDouble(other);
 
-            if (match.matchable()) {
-                rideMatches.put(match.getId(), match);
-                matches.add(match);
+                if (best.size() < limit) {
+                    best.add(new Candidate(key, other));
+                } else if (key < best.peek().key()) {
+                    best.poll();
+                    best.add(new Candidate(key, other));
+                }
             }
+        });
+
+        SortedSet<RideMatch> matches = new TreeSet<>(getMatchComparator(ride));
+
+        for (Candidate candidate : best) {
+            matches.add(propose(ride, candidate.ride()));
         }
 
         return matches;
     }
 
     /**
-     * Accept the proposed match (identified by {@code matchId}) for given ride (identified by {@code rideId})
+     * Comparator of the matches proposed to a ride, as its key comparator, with ties broken by match id.
+     * Hence, matches with equal keys, such as equally rated or placed rides, are all kept in sorted sets.
+     * @param ride to which matches are proposed
+     * @return comparator of matches consistent with their identity
+     */
+    private static Comparator<RideMatch> getMatchComparator(Ride ride) {
+        return ride.getKeyComparator().thenComparingLong(RideMatch::getId);
+    }
+
+    /**
+     * A ride that may be matched, with its sort key
+     * @param key of ride, lower is better
+     * @param ride candidate
+     */
+    private record Candidate(double key, Ride ride) {
+    }
+
+    /**
+     * Move ride with given id to its current location and sweep expired proposals, before matching it.
+     * @param rideId of ride to move
+     * @param current location of ride
+     * @return moved ride, or null if it is unknown or already matched
+     */
+    private Ride moveRide(long rideId, Location current) {
+        Ride ride = rides.get(rideId);
+        if (ride == null)
+            return null;
+
+        synchronized (ride) {
+            ride.setUpdated(System.currentTimeMillis());
+
+            if (ride.isMatched())
+                return null;
+
+            // Update the position in the quadtree, in place if it remains in the same leaf
+            indexes.get(ride.getRideRole()).move(ride, current.x(), current.y());
+        }
+
+        proposals.sweep();
+        return ride;
+    }
+
+    /**
+     * Update current locations of several rides, as in a burst of location updates, and return
+     * the proposed matches of each ride, as {@link #updateRide(long, Location)} does.
+     * All rides are moved before matching, hence each match considers the new locations of both rides.
+     * <p>Moved rides are grouped by role and by square cells with side equal to the radius, of their locations and
+     * destinations, and the rides near each pair of cells are found with a single search in the index of the other
+     * role. A pair of rides that are both in this batch
+     * is proposed a single {@link RideMatch}, included in the matches of both rides.
+     * @param locations map from ride ids to their current locations
+     * @return map from ride ids to their matches (empty for unknown or already matched rides)
+     */
+    public Map<Long, SortedSet<RideMatch>> updateRides(Map<Long, Location> locations) {
+        Map<Long, SortedSet<RideMatch>> matchesById = new HashMap<>();
+        Map<Cell, List<Ride>> cells = new HashMap<>();
+
+        for (Map.Entry<Long, Location> entry : locations.entrySet()) {
+            Ride ride = rides.get(entry.getKey());
+            Location current = entry.getValue();
+
+            if (ride == null) {
+                matchesById.put(entry.getKey(), new TreeSet<>());
+                continue;
+            }
+
+            synchronized (ride) {
+                ride.setUpdated(System.currentTimeMillis());
+
+                if (ride.isMatched()) {
+                    matchesById.put(entry.getKey(), new TreeSet<>());
+                    continue;
+                }
+
+                indexes.get(ride.getRideRole()).move(ride, current.x(), current.y());
+            }
+
+            matchesById.put(entry.getKey(), new TreeSet<>(getMatchComparator(ride)));
+            cells.computeIfAbsent(Cell.of(ride.getRideRole(), current, ride.getTo()), cell -> new ArrayList<>())
+                    .add(ride);
+        }
+
+        proposals.sweep();
+
+        double searchRadius = radius + radius * Math.sqrt(2) / 2;
+
+        for (Map.Entry<Cell, List<Ride>> entry : cells.entrySet()) {
+            Cell cell = entry.getKey();
+            List<Ride> moved = entry.getValue();
+
+            DestinationIndex others = indexes.get(cell.role().other());
+
+            others.forEachNear(cell.centerX(), cell.centerY(), searchRadius, cell.toCenter(), searchRadius, other -> {
+                SortedSet<RideMatch> otherMatches = matchesById.get(other.getId());
+
+                for (Ride ride : moved) {
+                    // pairs of rides in this batch are matched once, from the ride with lower id
+                    if (other == ride || otherMatches != null && other.getId() < ride.getId()) {
+                        continue;
+                    }
+
+                    if (RideMatch.matchable(ride, other)) {
+                        RideMatch match = propose(ride, other);
+
+                        matchesById.get(ride.getId()).add(match);
+
+                        if (otherMatches != null) {
+                            otherMatches.add(match);
+                        }
+                    }
+                }
+            });
+        }
+
+        return matchesById;
+    }
+
+    /**
+     * A pair of square cells of the matching region, with side equal to the radius,
+     * one for current locations and the other for destinations, of rides with a role
+     * @param role of rides
+     * @param column of current location cell
+     * @param row of current location cell
+     * @param toColumn of destination cell
+     * @param toRow of destination cell
+     */
+    private record Cell(RideRole role, long column, long row, long toColumn, long toRow) {
+
+        static Cell of(RideRole role, Location current, Location to) {
+            return new Cell(role, (long) Math.floor(current.x() / radius), (long) Math.floor(current.y() / radius),
+                    (long) Math.floor(to.x() / radius), (long) Math.floor(to.y() / radius));
+        }
+
+        double centerX() {
+            return (column + 0.5) * radius;
+        }
+
+        double centerY() {
+            return (row + 0.5) * radius;
+        }
+
+        Location toCenter() {
+            return new Location((toColumn + 0.5) * radius, (toRow + 0.5) * radius);
+        }
+    }
+
+    /**
+     * Create a match between given rides, proposed until accepted or expired
+     * @param ride updated
+     * @param other ride matching the updated one
+     * @return proposed match
+     */
+    private RideMatch propose(Ride ride, Ride other) {
+        RideMatch match = new RideMatch(ride, other);
+
+        proposals.add(match);
+        return match;
+    }
+
+    /**
+     * Accept the proposed match (identified by {@code matchId}) for given ride (identified by {@code rideId}).
+     * Both rides of the match are claimed, under their locks taken in order of ride id, hence concurrent
+     * acceptances of different matches of a ride cannot both succeed. Accepting a match pairing rides
+     * that are already matched with each other has no effect.
      * @param rideId id of ride
      * @param matchId of match to accept
+     * @throws ExpiredMatchException if the match is no longer proposed
+     * @throws IllegalArgumentException if the ride is unknown, or is not one of the rides of the match
+     * @throws IllegalStateException if either ride of the match is already matched with another ride
      */
     public void acceptMatch(long rideId, long matchId) {
         Ride ride = rides.get(rideId);
-        RideMatch match = rideMatches.get(matchId);
-        ride.setMatch(match);
-        quadtree.delete(ride);
+        RideMatch match = proposals.get(matchId);
+
+        if (ride == null) {
+            throw new IllegalArgumentException("Unknown ride " + rideId);
+        }
+
+        Ride driver = match.getRide(RideRole.DRIVER);
+        Ride passenger = match.getRide(RideRole.PASSENGER);
+
+        if (ride != driver && ride != passenger) {
+            throw new IllegalArgumentException("Ride " + rideId + " is not in ride match " + matchId);
+        }
+
+        Ride first = driver.getId() < passenger.getId() ? driver : passenger;
+        Ride second = first == driver ? passenger : driver;
+
+        synchronized (first) {
+            synchronized (second) {
+                if (isTaken(first, match) || isTaken(second, match)) {
+                    throw new IllegalStateException("Ride match " + matchId + " is no longer available");
+                }
+
+                claim(first, match);
+                claim(second, match);
+            }
+        }
+    }
+
+    /**
+     * Checks if given ride is matched with a ride other than those in given match. Must hold the ride's lock.
+     * @param ride of match
+     * @param match to accept
+     * @return true if the ride is matched with another ride; false otherwise
+     */
+    private static boolean isTaken(Ride ride, RideMatch match) {
+        RideMatch current = ride.getMatch();
+
+        return current != null && current.getOppositeRide(ride) != match.getOppositeRide(ride);
+    }
+
+    /**
+     * Set given match to given ride, unless it is already matched with the same ride, and remove it from the index.
+     * Must hold the ride's lock.
+     * @param ride of match
+     * @param match accepted
+     */
+    private void claim(Ride ride, RideMatch match) {
+        if (!ride.isMatched()) {
+            ride.setMatch(match);
+            ride.setUpdated(System.currentTimeMillis());
+            indexes.get(ride.getRideRole()).delete(ride);
+        }
     }
 
     /**
      * Mark ride as concluded and classify other using stars
      * @param rideId of the ride to conclude
      * @param stars to assign to other user
+     * @throws RideSharingAppException if the ride is unknown, possibly evicted, or not matched
      */
-    public void concludeRide(long rideId, UserStars stars) {
+    public void concludeRide(long rideId, UserStars stars) throws RideSharingAppException {
         Ride ride = rides.get(rideId);
+
+        if (ride == null) {
+            throw new RideSharingAppException("Unknown or evicted ride " + rideId);
+        }
+
         RideMatch match = ride.getMatch();
 
+        if (match == null) {
+            throw new RideSharingAppException("Ride " + rideId + " is not matched");
+        }
+
+        ride.setConcluded(System.currentTimeMillis());
+
         Ride other = match.getOppositeRide(ride);
         User otherUser = other.getUser();
 
         otherUser.addStars(stars, other.getRideRole());
 
-        rideMatches.remove(match.getId());
+        proposals.remove(match.getId());
+    }
+
+    /**
+     * Evict concluded rides older than {@link #getConcludedGracePeriod()}, unmatched rides
+     * not updated within {@link #getIdleTimeout()} and matched rides not concluded within
+     * {@link #getMatchedTimeout()} after being matched or last updated. Evicted rides are removed from the quad trees,
+     * hence they are no longer matched, and their updates return no matches.
+     * Expired proposals are also removed, even if no ride is updated.
+     * @return number of rides evicted
+     */
+    public int evictRides() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+
+        for (Ride ride : rides.values()) {
+            synchronized (ride) {
+                if (isStale(ride, now)) {
+                    indexes.get(ride.getRideRole()).delete(ride);
+                    rides.remove(ride.getId());
+
+                    if (ride.isMatched()) {
+                        proposals.remove(ride.getMatch().getId());
+                    }
+                    evicted++;
+                }
+            }
+        }
+
+        proposals.sweep();
+        return evicted;
+    }
+
+    /**
+     * Checks if given ride should be evicted. Must hold the ride's lock.
+     * @param ride to check
+     * @param now current time in milliseconds
+     * @return true if the ride is concluded, matched or unmatched for longer than allowed; false otherwise
+     */
+    private static boolean isStale(Ride ride, long now) {
+        if (ride.isConcluded()) {
+            return now - ride.getConcluded() >= concludedGracePeriod;
+        }
+
+        return now - ride.getUpdated() >= (ride.isMatched() ? matchedTimeout : idleTimeout);
+    }
+
+    /**
+     * Run {@link #evictRides()} periodically with given scheduler, in background
+     * @param scheduler running evictions
+     * @param period between evictions in milliseconds
+     * @return future to cancel evictions
+     */
+    public ScheduledFuture<?> startSweeper(ScheduledExecutorService scheduler, long period) {
+        return scheduler.scheduleWithFixedDelay(this::evictRides, period, period, TimeUnit.MILLISECONDS);
     }
 }
@@ -0,0 +1,13 @@
+package org.vaadin.rsa.match;
+
+/**
+ * Statistics on the proposed matches of a {@link Matcher}, useful to tune the proposal timeout and the maximum
+ * number of proposals.
+ * @param hits number of lookups of matches that were still proposed
+ * @param misses number of lookups of matches that were expired, evicted or unknown
+ * @param expirations number of proposals removed for exceeding the timeout
+ * @param evictions number of proposals removed for exceeding the maximum number of proposals
+ * @param size number of matches currently kept, either proposed or accepted
+ */
+public record ProposalStatistics(long hits, long misses, long expirations, long evictions, int size) {
+}
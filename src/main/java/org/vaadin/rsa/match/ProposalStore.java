@@ -0,0 +1,129 @@
+package org.vaadin.rsa.match;
+
+import org.vaadin.rsa.ride.RideRole;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A store of ride matches proposed by a {@link Matcher}, with bounded memory.
+ * Matches are kept until concluded if accepted, otherwise they are removed when older than a timeout
+ * or, oldest first, when there are more pending proposals than a maximum.
+ * <p>Pending proposals are queued by creation time, hence each sweep only visits the head of the queue
+ * and the cost of removing a proposal is constant. Lookups, expirations and evictions are counted
+ * and reported in {@link ProposalStatistics}. The store is thread safe.
+ */
+class ProposalStore {
+
+    private final long timeout;
+    private final int maxProposals;
+
+    private final Map<Long, RideMatch> matches = new ConcurrentHashMap<>();
+    private final Queue<RideMatch> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a store with given timeout and maximum number of pending proposals
+     * @param timeout for accepting a proposal, in milliseconds
+     * @param maxProposals maximum number of pending proposals
+     */
+    ProposalStore(long timeout, int maxProposals) {
+        this.timeout = timeout;
+        this.maxProposals = maxProposals;
+    }
+
+    /**
+     * Add a proposed match, evicting the oldest proposals if there are too many
+     * @param match proposed
+     */
+    void add(RideMatch match) {
+        matches.put(match.getId(), match);
+        pending.add(match);
+
+        if (pendingCount.incrementAndGet() > maxProposals) {
+            sweep();
+        }
+    }
+
+    /**
+     * Get match with given identifier, either proposed or accepted
+     * @param matchId of match
+     * @return match with given identifier
+     * @throws ExpiredMatchException if the match expired, was evicted or is unknown
+     */
+    RideMatch get(long matchId) {
+        RideMatch match = matches.get(matchId);
+
+        if (match == null) {
+            misses.increment();
+            throw new ExpiredMatchException(matchId);
+        }
+
+        hits.increment();
+        return match;
+    }
+
+    /**
+     * Remove match with given identifier, as when concluded
+     * @param matchId of match
+     */
+    void remove(long matchId) {
+        matches.remove(matchId);
+    }
+
+    /**
+     * Remove pending proposals older than the timeout, and the oldest ones while there are too many.
+     * Accepted matches leave the queue but are kept until removed.
+     */
+    void sweep() {
+        long expiry = System.currentTimeMillis() - timeout;
+        RideMatch match;
+
+        while ((match = pending.peek()) != null) {
+            boolean expired = match.getCreated() <= expiry;
+
+            if (!expired && pendingCount.get() <= maxProposals) {
+                return;
+            }
+
+            if (pending.remove(match)) {
+                pendingCount.decrementAndGet();
+
+                if (!isAccepted(match) && matches.remove(match.getId()) != null) {
+                    (expired ? expirations : evictions).increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if given match was accepted by any of its rides
+     * @param match to check
+     * @return true if accepted; false otherwise
+     */
+    private static boolean isAccepted(RideMatch match) {
+        for (RideRole role : RideRole.values()) {
+            if (match.getRide(role).getMatch() == match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Statistics on lookups and removals of proposals since this store was created
+     * @return statistics of this store
+     */
+    ProposalStatistics getStatistics() {
+        return new ProposalStatistics(hits.sum(), misses.sum(), expirations.sum(), evictions.sum(), matches.size());
+    }
+}
@@ -1,20 +1,28 @@
 package org.vaadin.rsa.match;
 
+import org.vaadin.rsa.quad.Trie;
 import org.vaadin.rsa.ride.Ride;
 import org.vaadin.rsa.ride.RideRole;
 import org.vaadin.rsa.user.Car;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * A match between 2 rides. Each has specific role, either as driver or as passenger and they must be different.
  * It is assumed that both rides have the same destination, although not checked in this class.
  */
 public class RideMatch {
 
-    private static long rideMatchCounter = 1;
+    private static final AtomicLong rideMatchCounter = new AtomicLong(1);
 
     private final long id;
     private final Ride left;
     private final Ride right;
+    private final long created;
+    private double leftKey;
+    private double rightKey;
+    private boolean leftScored;
+    private boolean rightScored;
 
     /**
      * Create a possible ride match for a pair of rides (rides have no particular order)
@@ -24,7 +32,8 @@ public class RideMatch {
     public RideMatch(Ride left, Ride right) {
         this.left = left;
         this.right = right;
-        this.id = rideMatchCounter++;
+        this.id = rideMatchCounter.getAndIncrement();
+        this.created = System.currentTimeMillis();
     }
 
     /**
@@ -63,6 +72,38 @@ public class RideMatch {
         return id;
     }
 
+    /**
+     * Time when this ride match was proposed, in milliseconds since the epoch
+     * @return creation time of this ride match
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Sort key of this match for given ride, scored with the {@link Ride#getScorer()} of the ride when first requested
+     * and kept afterwards, in a primitive field for each ride. Hence, each match is scored once for each ride,
+     * even if averages or locations change afterwards.
+     * <p>Like the sorted collections of matches of a ride, it is not thread safe.
+     * @param ride of this match
+     * @return sort key of the opposite ride for given ride, lower is better
+     */
+    public double getKey(Ride ride) {
+        if (left.getRideRole() == ride.getRideRole()) {
+            if (!leftScored) {
+                leftKey = ride.getScorer().applyAsDouble(right);
+                leftScored = true;
+            }
+            return leftKey;
+        }
+
+        if (!rightScored) {
+            rightKey = ride.getScorer().applyAsDouble(left);
+            rightScored = true;
+        }
+        return rightKey;
+    }
+
     /**
      * Get name of user with given role
      * @param role of user in match
@@ -124,6 +165,17 @@ public class RideMatch {
      * @return true if it's a match, false otherwise.
      */
     boolean matchable() {
+        return matchable(left, right);
+    }
+
+    /**
+     * Are given rides matchable? Same checks as {@link #matchable()}, on primitive fields of the rides,
+     * hence candidates can be filtered before allocating a {@link RideMatch} and its identifier.
+     * @param left ride
+     * @param right ride
+     * @return true if it's a match, false otherwise.
+     */
+    static boolean matchable(Ride left, Ride right) {
         if (left == null || right == null) {
             return false;
         }
@@ -136,11 +188,16 @@ public class RideMatch {
             return false;
         }
 
-        if (!isCloseEnough(left.getCurrent(), right.getCurrent())) {
+        double squaredRadius = Matcher.getRadius() * Matcher.getRadius();
+
+        if (Trie.getSquaredDistance(left.x(), left.y(), right.x(), right.y()) > squaredRadius) {
             return false;
         }
 
-        return isCloseEnough(left.getTo(), right.getTo());
+        Location leftTo = left.getTo();
+        Location rightTo = right.getTo();
+
+        return Trie.getSquaredDistance(leftTo.x(), leftTo.y(), rightTo.x(), rightTo.y()) <= squaredRadius;
     }
 
     /**
@@ -158,14 +215,4 @@ public class RideMatch {
 
         return null;
     }
-
-    /**
-     * Finds if the distance between to locations is under a {@link Matcher#getRadius()}.
-     * @param left location
-     * @param right location
-     * @return true if distance is less than or equal to the radius, false otherwise
-     */
-    private boolean isCloseEnough(Location left, Location right) {
-        return Math.sqrt(Math.pow(left.x() - right.x(), 2) + Math.pow(left.y() - right.y(), 2)) <= Matcher.getRadius();
-    }
 }
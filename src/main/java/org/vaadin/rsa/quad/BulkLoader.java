@@ -0,0 +1,214 @@
+package org.vaadin.rsa.quad;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds a trie top-down from an array of points, used by {@link PointQuadtree#bulkLoad(java.util.Collection)}.
+ * Points in a range are partitioned in place by quadrant, as in a radix sort, and each quadrant
+ * is built recursively. Leaves are created only when their points fit, hence points are never re-inserted.
+ * Equal points have the same coordinates and end up in the same leaf, where only one of them is kept.
+ * <p>Quadrants with more than {@link #THRESHOLD} points are built in parallel as fork-join tasks.
+ */
+class BulkLoader<T extends HasPoint> extends RecursiveTask<Trie<T>> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Minimum number of points in a range to build it in a separate task
+     */
+    static final int THRESHOLD = 1 << 13;
+
+    private final Object[] elements;
+    private final double[] xs;
+    private final double[] ys;
+    private final int from;
+    private final int to;
+    private final double topLeftX;
+    private final double topLeftY;
+    private final double bottomRightX;
+    private final double bottomRightY;
+    private final int bucketCapacity;
+
+    /**
+     * Create a task building a trie in given rectangle with points in a range of given arrays.
+     * @param elements points
+     * @param xs x coordinates of points
+     * @param ys y coordinates of points
+     * @param from first index of range (inclusive)
+     * @param to last index of range (exclusive)
+     * @param topLeftX of rectangle
+     * @param topLeftY of rectangle
+     * @param bottomRightX of rectangle
+     * @param bottomRightY of rectangle
+     * @param bucketCapacity of tries built, or 0 for the default capacity
+     */
+    BulkLoader(Object[] elements, double[] xs, double[] ys, int from, int to,
+               double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int bucketCapacity) {
+        this.elements = elements;
+        this.xs = xs;
+        this.ys = ys;
+        this.from = from;
+        this.to = to;
+        this.topLeftX = topLeftX;
+        this.topLeftY = topLeftY;
+        this.bottomRightX = bottomRightX;
+        this.bottomRightY = bottomRightY;
+        this.bucketCapacity = bucketCapacity;
+    }
+
+    /**
+     * Build the trie with the points in range: a leaf if they fit in a bucket, a node otherwise.
+     * @return trie with all points in range
+     */
+    @Override
+    protected Trie<T> compute() {
+        if (to - from <= capacity()) {
+            return createLeaf();
+        }
+
+        NodeTrie<T> node = new NodeTrie<>(topLeftX, topLeftY, bottomRightX, bottomRightY, bucketCapacity);
+        int[] starts = partition(node);
+
+        if (isSingleSlot(starts) && haveSameCoordinates()) {
+            return createLeaf();
+        }
+
+        @SuppressWarnings("unchecked")
+        BulkLoader<T>[] tasks = (BulkLoader<T>[]) new BulkLoader<?>[node.tries.length];
+        double midX = (topLeftX + bottomRightX) / 2;
+        double midY = (topLeftY + bottomRightY) / 2;
+
+        for (int slot = 0; slot < tasks.length; slot++) {
+            if (starts[slot] < starts[slot + 1]) {
+                boolean west = (slot & 1) != 0;
+                boolean south = (slot & 2) != 0;
+
+                tasks[slot] = new BulkLoader<>(elements, xs, ys, starts[slot], starts[slot + 1],
+                        west ? topLeftX : midX, south ? midY : topLeftY,
+                        west ? midX : bottomRightX, south ? bottomRightY : midY, bucketCapacity);
+
+                if (starts[slot + 1] - starts[slot] > THRESHOLD) {
+                    tasks[slot].fork();
+                }
+            }
+        }
+
+        for (int slot = tasks.length - 1; slot >= 0; slot--) {
+            if (tasks[slot] != null) {
+                node.tries[slot] = starts[slot + 1] - starts[slot] > THRESHOLD ?
+                        tasks[slot].join() : tasks[slot].compute();
+            }
+        }
+
+        return node;
+    }
+
+    /**
+     * Create a leaf with the points in range, ignoring points equal to others already in the leaf
+     * @return leaf with all points in range
+     */
+    @SuppressWarnings("unchecked")
+    private LeafTrie<T> createLeaf() {
+        LeafTrie<T> leaf = new LeafTrie<>(topLeftX, topLeftY, bottomRightX, bottomRightY, bucketCapacity);
+
+        for (int i = from; i < to; i++) {
+            T point = (T) elements[i];
+
+            if (leaf.indexOf(point) < 0) {
+                leaf.append(point, xs[i], ys[i]);
+            }
+        }
+        return leaf;
+    }
+
+    /**
+     * Checks if all points in range were placed in the same slot
+     * @param starts of slots, as returned by {@link #partition(NodeTrie)}
+     * @return true if a single slot has all points; false otherwise
+     */
+    private boolean isSingleSlot(int[] starts) {
+        for (int slot = 0; slot < starts.length - 1; slot++) {
+            if (starts[slot + 1] - starts[slot] == to - from) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if all points in range have the same coordinates, hence they cannot be split in quadrants
+     * and must be kept in a single leaf, even if it exceeds the capacity.
+     * @return true if all points have the same coordinates; false otherwise
+     */
+    private boolean haveSameCoordinates() {
+        for (int i = from + 1; i < to; i++) {
+            if (xs[i] != xs[from] || ys[i] != ys[from]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Capacity of the leaves built, as in {@link Trie#getBucketCapacity()}, at least 1 to ensure that ranges shrink
+     * @return capacity
+     */
+    private int capacity() {
+        return Math.max(1, bucketCapacity > 0 ? bucketCapacity : Trie.getCapacity());
+    }
+
+    /**
+     * Partition the points in range in place by slot of given node, as in an American flag sort.
+     * @param node whose slots partition the points
+     * @return array with the first index of each slot, followed by the end of the range
+     */
+    private int[] partition(NodeTrie<T> node) {
+        int slots = node.tries.length;
+        int[] starts = new int[slots + 1];
+        int[] next = new int[slots];
+
+        for (int i = from; i < to; i++) {
+            starts[node.slotOf(xs[i], ys[i]) + 1]++;
+        }
+
+        starts[0] = from;
+        for (int slot = 0; slot < slots; slot++) {
+            starts[slot + 1] += starts[slot];
+            next[slot] = starts[slot];
+        }
+
+        for (int slot = 0; slot < slots; slot++) {
+            while (next[slot] < starts[slot + 1]) {
+                int i = next[slot];
+                int target = node.slotOf(xs[i], ys[i]);
+
+                if (target == slot) {
+                    next[slot]++;
+                } else {
+                    swap(i, next[target]++);
+                }
+            }
+        }
+
+        return starts;
+    }
+
+    /**
+     * Swap two points, with their coordinates
+     * @param i index of a point
+     * @param j index of another point
+     */
+    private void swap(int i, int j) {
+        Object element = elements[i];
+        elements[i] = elements[j];
+        elements[j] = element;
+
+        double x = xs[i];
+        xs[i] = xs[j];
+        xs[j] = x;
+
+        double y = ys[i];
+        ys[i] = ys[j];
+        ys[j] = y;
+    }
+}
@@ -2,6 +2,7 @@ package org.vaadin.rsa.quad;
 
 /**
  * An object with x and y coordinates, each with its own getter.
+ * Points are immutable by default; those that can be moved in place by a quad tree override {@link #moveTo}.
  */
 public interface HasPoint {
 
@@ -16,4 +17,16 @@ public interface HasPoint {
      * @return y coordinate
      */
     double y();
+
+    /**
+     * Change coordinates of this point. This method is called by {@link PointQuadtree#move}
+     * and should not be called while the point is in a quad tree.
+     * <p>Points that are moved should not use their coordinates in {@code equals()} and {@code hashCode()}.
+     * @param x new coordinate
+     * @param y new coordinate
+     * @throws UnsupportedOperationException if this point cannot be moved (default)
+     */
+    default void moveTo(double x, double y) {
+        throw new UnsupportedOperationException("Point cannot be moved");
+    }
 }
@@ -1,15 +1,24 @@
 package org.vaadin.rsa.quad;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * A Trie that has no descendants. This class corresponds to the Leaf in the Composite design pattern.
+ * <p>Points are kept in an array, with their coordinates recorded in parallel arrays of primitives.
+ * Hence, searches filter points by distance without dereferencing them.
+ * Recorded coordinates are updated when points are moved with {@link #move(HasPoint, double, double)}.
  */
 class LeafTrie<T extends HasPoint> extends Trie<T> {
 
-    final Set<T> points;
+    private Object[] elements;
+    private double[] xs;
+    private double[] ys;
+    private int size;
 
     /**
      * Create a leaf in given rectangle
@@ -19,8 +28,23 @@ class LeafTrie<T extends HasPoint> extends Trie<T> {
      * @param bottomRightY of rectangle
      */
     LeafTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY) {
-        super(topLeftX, topLeftY, bottomRightX, bottomRightY);
-        points = new HashSet<>();
+        this(topLeftX, topLeftY, bottomRightX, bottomRightY, 0);
+    }
+
+    /**
+     * Create a leaf in given rectangle with given capacity
+     * @param topLeftX of rectangle
+     * @param topLeftY of rectangle
+     * @param bottomRightX of rectangle
+     * @param bottomRightY of rectangle
+     * @param bucketCapacity of this leaf and those replacing it, or 0 for the default capacity
+     */
+    LeafTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int bucketCapacity) {
+        super(topLeftX, topLeftY, bottomRightX, bottomRightY, bucketCapacity);
+        int length = Math.max(1, getBucketCapacity());
+        elements = new Object[length];
+        xs = new double[length];
+        ys = new double[length];
     }
 
     /**
@@ -28,9 +52,98 @@ class LeafTrie<T extends HasPoint> extends Trie<T> {
      * @return collection of points
      */
     Collection<T> getPoints() {
+        List<T> points = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            points.add(get(i));
+        }
+
         return points;
     }
 
+    /**
+     * Number of points currently in this leaf
+     * @return number of points
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Point with given index
+     * @param index of point, between 0 and size() - 1
+     * @return point
+     */
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        return (T) elements[index];
+    }
+
+    /**
+     * Recorded x coordinate of point with given index
+     * @param index of point, between 0 and size() - 1
+     * @return x coordinate
+     */
+    double x(int index) {
+        return xs[index];
+    }
+
+    /**
+     * Recorded y coordinate of point with given index
+     * @param index of point, between 0 and size() - 1
+     * @return y coordinate
+     */
+    double y(int index) {
+        return ys[index];
+    }
+
+    /**
+     * Index of given point in this leaf
+     * @param point to search
+     * @return index of point, or -1 if absent
+     */
+    int indexOf(T point) {
+        for (int i = 0; i < size; i++) {
+            if (elements[i] == point || elements[i].equals(point)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Append a point with given coordinates, growing arrays if needed
+     * @param point to append
+     * @param x coordinate of point
+     * @param y coordinate of point
+     */
+    void append(T point, double x, double y) {
+        if (size == elements.length) {
+            int length = 2 * elements.length;
+            elements = Arrays.copyOf(elements, length);
+            xs = Arrays.copyOf(xs, length);
+            ys = Arrays.copyOf(ys, length);
+        }
+
+        elements[size] = point;
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+    }
+
+    /**
+     * Remove point with given index, replacing it with the last one
+     * @param index of point to remove
+     */
+    private void remove(int index) {
+        size--;
+        elements[index] = elements[size];
+        xs[index] = xs[size];
+        ys[index] = ys[size];
+        elements[size] = null;
+    }
+
     /**
      * Description copied from class: {@link Trie}
      * <p>Find a recorded point with the same coordinates of given point
@@ -39,9 +152,12 @@ class LeafTrie<T extends HasPoint> extends Trie<T> {
      */
     @Override
     T find(T point) {
-        for (T pointInSet : getPoints()) {
-            if (pointInSet.x() == point.x() && pointInSet.y() == point.y()) {
-                return pointInSet;
+        double x = point.x();
+        double y = point.y();
+
+        for (int i = 0; i < size; i++) {
+            if (xs[i] == x && ys[i] == y) {
+                return get(i);
             }
         }
 
@@ -50,29 +166,50 @@ class LeafTrie<T extends HasPoint> extends Trie<T> {
 
     /**
      * Description copied from class: {@link Trie}
-     * <p>Insert given point
+     * <p>Insert given point with given coordinates. Points already in this leaf are ignored.
+     * A full leaf is replaced by a node with the points it contained, unless all of them have the
+     * same coordinates of given point: since they cannot be split in quadrants, the leaf exceeds its capacity.
      * @param point to be inserted
+     * @param x coordinate of point
+     * @param y coordinate of point
      * @return changed parent node
      */
     @Override
-    Trie<T> insert(T point) {
-        if (points.size() == capacity) {
-            Set<T> clonePoints = new HashSet<>(points);
-            points.clear();
-            NodeTrie<T> nodeTrie = new NodeTrie<>(topLeftX, topLeftY, bottomRightX, bottomRightY);
-
-            for (T pointInSet : clonePoints) {
-                nodeTrie.insert(pointInSet);
+    Trie<T> insert(T point, double x, double y) {
+        if (indexOf(point) >= 0) {
+            return this;
+        }
+
+        if (size >= getBucketCapacity() && !haveCoordinates(x, y)) {
+            NodeTrie<T> nodeTrie = new NodeTrie<>(topLeftX, topLeftY, bottomRightX, bottomRightY, bucketCapacity);
+
+            for (int i = 0; i < size; i++) {
+                nodeTrie.insert(get(i), xs[i], ys[i]);
             }
 
-            nodeTrie.insert(point);
+            nodeTrie.insert(point, x, y);
             return nodeTrie;
         }
 
-        points.add(point);
+        append(point, x, y);
         return this;
     }
 
+    /**
+     * Checks if all points in this leaf have given coordinates
+     * @param x coordinate
+     * @param y coordinate
+     * @return true if all points have given coordinates; false otherwise
+     */
+    private boolean haveCoordinates(double x, double y) {
+        for (int i = 0; i < size; i++) {
+            if (xs[i] != x || ys[i] != y) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Description copied from class: {@link Trie}
      * <p>Insert given point, replacing existing points in same location
@@ -81,13 +218,40 @@ class LeafTrie<T extends HasPoint> extends Trie<T> {
      */
     @Override
     Trie<T> insertReplace(T point) {
-        T pointInSameLocation = find(point);
+        double x = point.x();
+        double y = point.y();
+
+        for (int i = 0; i < size; i++) {
+            if (xs[i] == x && ys[i] == y) {
+                remove(i);
+                break;
+            }
+        }
 
-        if (pointInSameLocation != null) {
-            points.remove(pointInSameLocation);
+        return insert(point, x, y);
+    }
+
+    /**
+     * Description copied from class: {@link Trie}
+     * <p>Move given point to new coordinates, in place if it remains in the same leaf.
+     * Only points already in this leaf are moved, since it was reached following the new coordinates.
+     * @param point to be moved
+     * @param newX new x coordinate
+     * @param newY new y coordinate
+     * @return true if the point was moved; false if it is absent
+     */
+    @Override
+    boolean move(T point, double newX, double newY) {
+        int index = indexOf(point);
+
+        if (index < 0) {
+            return false;
         }
 
-        return insert(point);
+        point.moveTo(newX, newY);
+        xs[index] = newX;
+        ys[index] = newY;
+        return true;
     }
 
     /**
@@ -100,11 +264,41 @@ class LeafTrie<T extends HasPoint> extends Trie<T> {
      */
     @Override
     void collectNear(double x, double y, double radius, Set<T> points) {
-        for (T point : getPoints()) {
-            if (getDistance(point.x(), point.y(), x, y) <= radius) {
-                points.add(point);
+        double squaredRadius = radius * radius;
+
+        for (int i = 0; i < size; i++) {
+            double dx = xs[i] - x;
+            double dy = ys[i] - y;
+
+            if (dx * dx + dy * dy <= squaredRadius) {
+                points.add(get(i));
+            }
+        }
+    }
+
+    /**
+     * Description copied from class: {@link Trie}
+     * <p>Pass points at a distance smaller or equal to radius from (x,y) to given action, until it returns false
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param radius from given point
+     * @param action applied to each point, returning false to stop
+     * @return false if the action stopped the traversal; true otherwise
+     */
+    @Override
+    boolean forEachNear(double x, double y, double radius, Predicate<? super T> action) {
+        double squaredRadius = radius * radius;
+
+        for (int i = 0; i < size; i++) {
+            double dx = xs[i] - x;
+            double dy = ys[i] - y;
+
+            if (dx * dx + dy * dy <= squaredRadius && !action.test(get(i))) {
+                return false;
             }
         }
+
+        return true;
     }
 
     /**
@@ -114,17 +308,37 @@ class LeafTrie<T extends HasPoint> extends Trie<T> {
      */
     @Override
     void collectAll(Set<T> points) {
-        points.addAll(getPoints());
+        for (int i = 0; i < size; i++) {
+            points.add(get(i));
+        }
     }
 
     /**
      * Description copied from class: {@link Trie}
-     * <p>Delete given point
+     * <p>Delete given point, found by identity or equality regardless of coordinates
      * @param point to delete
+     * @param x coordinate where the point was inserted
+     * @param y coordinate where the point was inserted
+     * @return changed parent node
+     */
+    @Override
+    Trie<T> delete(T point, double x, double y) {
+        int index = indexOf(point);
+
+        if (index >= 0) {
+            remove(index);
+        }
+        return this;
+    }
+
+    /**
+     * Description copied from class: {@link Trie}
+     * <p>A leaf is already compact
+     * @return changed parent node
      */
     @Override
-    void delete(T point) {
-        points.remove(point);
+    Trie<T> compact() {
+        return this;
     }
 
     /**
@@ -140,7 +354,7 @@ class LeafTrie<T extends HasPoint> extends Trie<T> {
     @Override
     public String toString() {
         return "LeafTrie{" +
-                "points=" + points +
+                "points=" + getPoints() +
                 ", topLeftY=" + topLeftY +
                 ", topLeftX=" + topLeftX +
                 ", bottomRightY=" + bottomRightY +
@@ -0,0 +1,108 @@
+package org.vaadin.rsa.quad;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * A best-first search of the points nearest to a given location. Tries and points are kept in a priority queue
+ * ordered by their distance to the location: visiting a trie enqueues its children (or points, for leaves),
+ * and a point removed from the queue is closer than everything still in it.
+ * Hence, points are found by increasing distance and the search stops as soon as enough are found.
+ * An instance of this class is used by {@link PointQuadtree#findNearest}
+ */
+class NearestVisitor<T extends HasPoint> implements Visitor<T> {
+
+    /**
+     * A trie or point in the queue, with its squared distance to the location
+     */
+    private record Candidate<T extends HasPoint>(Trie<T> trie, T point, double squaredDistance) {
+    }
+
+    private final double x;
+    private final double y;
+    private final double squaredRadius;
+    private final Predicate<? super T> filter;
+    private final PriorityQueue<Candidate<T>> queue =
+            new PriorityQueue<>((a, b) -> Double.compare(a.squaredDistance(), b.squaredDistance()));
+
+    /**
+     * Create a search around given location
+     * @param x coordinate of location
+     * @param y coordinate of location
+     * @param maxRadius maximum distance of points from location
+     * @param filter of acceptable points
+     */
+    NearestVisitor(double x, double y, double maxRadius, Predicate<? super T> filter) {
+        this.x = x;
+        this.y = y;
+        this.squaredRadius = maxRadius * maxRadius;
+        this.filter = filter;
+    }
+
+    /**
+     * Search the nearest points in given trie
+     * @param top trie where to search
+     * @param k maximum number of points
+     * @return list of at most k points, sorted by increasing distance
+     */
+    List<T> search(Trie<T> top, int k) {
+        List<T> nearest = new ArrayList<>(Math.min(k, Trie.getCapacity()));
+
+        enqueue(top);
+        while (nearest.size() < k && !queue.isEmpty()) {
+            Candidate<T> candidate = queue.poll();
+
+            if (candidate.point() != null) {
+                nearest.add(candidate.point());
+            } else {
+                candidate.trie().accept(this);
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Enqueue a trie if it overlaps the search circle
+     * @param trie to enqueue
+     */
+    private void enqueue(Trie<T> trie) {
+        double squaredDistance = trie.getSquaredDistanceTo(x, y);
+
+        if (squaredDistance <= squaredRadius) {
+            queue.add(new Candidate<>(trie, null, squaredDistance));
+        }
+    }
+
+    /**
+     * Description copied from interface: {@link Visitor}
+     * <p>Do a visit to a node in the composite structure, enqueueing its children
+     * @param node to be visited
+     */
+    @Override
+    public void visit(NodeTrie<T> node) {
+        for (Trie<T> childTrie : node.tries) {
+            if (childTrie != null) {
+                enqueue(childTrie);
+            }
+        }
+    }
+
+    /**
+     * Description copied from interface: {@link Visitor}
+     * <p>Do a visit to a leaf in the composite structure, enqueueing its accepted points within radius
+     * @param leaf to be visited
+     */
+    @Override
+    public void visit(LeafTrie<T> leaf) {
+        for (int i = 0; i < leaf.size(); i++) {
+            double squaredDistance = Trie.getSquaredDistance(x, y, leaf.x(i), leaf.y(i));
+
+            if (squaredDistance <= squaredRadius && filter.test(leaf.get(i))) {
+                queue.add(new Candidate<>(null, leaf.get(i), squaredDistance));
+            }
+        }
+    }
+}
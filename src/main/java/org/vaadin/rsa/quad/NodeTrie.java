@@ -1,17 +1,25 @@
 package org.vaadin.rsa.quad;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * Trie with 4 sub tries with equal dimensions covering all its area.
  * This class corresponds to the Container in the Composite design pattern.
+ * <p>Children are kept in an array of 4 slots indexed by {@link Quadrant} ordinal, null for missing children.
+ * Since ordinals are NE, NW, SE, SW, the slot of a point has bit 1 set if it is south
+ * of the center and bit 0 set if it is west of it.
  */
 class NodeTrie<T extends HasPoint> extends Trie<T> {
 
-    final Map<Quadrant, Trie<T>> tries;
+    private static final Quadrant[] QUADRANTS = Quadrant.values();
+
+    private final double midX;
+    private final double midY;
+    final Trie<T>[] tries;
 
     /**
      * Create a node in given rectangle.
@@ -21,8 +29,35 @@ class NodeTrie<T extends HasPoint> extends Trie<T> {
      * @param bottomRightY of rectangle
      */
     NodeTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY) {
-        super(topLeftX, topLeftY, bottomRightX, bottomRightY);
-        tries = new HashMap<>();
+        this(topLeftX, topLeftY, bottomRightX, bottomRightY, 0);
+    }
+
+    /**
+     * Create a node in given rectangle with given capacity of its descendant leaves.
+     * @param topLeftX of rectangle
+     * @param topLeftY of rectangle
+     * @param bottomRightX of rectangle
+     * @param bottomRightY of rectangle
+     * @param bucketCapacity of descendant leaves, or 0 for the default capacity
+     */
+    NodeTrie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int bucketCapacity) {
+        super(topLeftX, topLeftY, bottomRightX, bottomRightY, bucketCapacity);
+        midX = (topLeftX + bottomRightX) / 2;
+        midY = (topLeftY + bottomRightY) / 2;
+        @SuppressWarnings("unchecked")
+        Trie<T>[] children = (Trie<T>[]) new Trie<?>[QUADRANTS.length];
+        tries = children;
+    }
+
+    /**
+     * Slot of the quadrant of a point in this node.
+     * Points on the center lines go to NW, NE and SW, in this order.
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @return index of quadrant in {@link #tries}
+     */
+    int slotOf(double x, double y) {
+        return (y < midY ? 2 : 0) | (x <= midX ? 1 : 0);
     }
 
     /**
@@ -41,26 +76,38 @@ class NodeTrie<T extends HasPoint> extends Trie<T> {
      * @return quadrant
      */
     Quadrant quadrantOf(double x, double y) {
-        double midX = (topLeftX + bottomRightX) / 2;
-        double midY = (topLeftY + bottomRightY) / 2;
-
-        if (x <= midX && y >= midY) {
-            return Quadrant.NW;
-        } else if (x >= midX && y >= midY) {
-            return Quadrant.NE;
-        } else if (x <= midX && y <= midY) {
-            return Quadrant.SW;
-        } else {
-            return Quadrant.SE;
-        }
+        return QUADRANTS[slotOf(x, y)];
     }
 
     /**
-     * A collection of tries that descend from this one
+     * A collection of tries that descend from this one, copied to a new list.
+     * Traversals in this package iterate {@link #tries} instead, skipping null slots, to avoid the copy.
      * @return collection of tries
      */
-    Collection<Trie<T>> getTries() {
-        return tries.values();
+    List<Trie<T>> getTries() {
+        List<Trie<T>> children = new ArrayList<>(tries.length);
+
+        for (Trie<T> childTrie : tries) {
+            if (childTrie != null) {
+                children.add(childTrie);
+            }
+        }
+
+        return children;
+    }
+
+    /**
+     * Create an empty leaf covering the quadrant in given slot
+     * @param slot of quadrant
+     * @return new leaf
+     */
+    private LeafTrie<T> createLeaf(int slot) {
+        return switch (QUADRANTS[slot]) {
+            case NW -> new LeafTrie<>(topLeftX, topLeftY, midX, midY, bucketCapacity);
+            case NE -> new LeafTrie<>(midX, topLeftY, bottomRightX, midY, bucketCapacity);
+            case SW -> new LeafTrie<>(topLeftX, midY, midX, bottomRightY, bucketCapacity);
+            case SE -> new LeafTrie<>(midX, midY, bottomRightX, bottomRightY, bucketCapacity);
+        };
     }
 
     /**
@@ -71,42 +118,28 @@ class NodeTrie<T extends HasPoint> extends Trie<T> {
      */
     @Override
     T find(T point) {
-        Quadrant quadrant = quadrantOf(point);
-        Trie<T> childTrie = tries.get(quadrant);
+        Trie<T> childTrie = tries[slotOf(point.x(), point.y())];
         return childTrie == null ? null : childTrie.find(point);
     }
 
     /**
      * Description copied from class: {@link Trie}
-     * <p>Insert given point
+     * <p>Insert given point with given coordinates, that are recorded in leaves
      * @param point to be inserted
+     * @param x coordinate of point
+     * @param y coordinate of point
      * @return changed parent node
      */
     @Override
-    Trie<T> insert(T point) {
-        Quadrant quadrant = quadrantOf(point);
-        Trie<T> childTrie = tries.get(quadrant);
+    Trie<T> insert(T point, double x, double y) {
+        int slot = slotOf(x, y);
+        Trie<T> childTrie = tries[slot];
 
         if (childTrie == null) {
-            double midX = (topLeftX + bottomRightX) / 2;
-            double midY = (topLeftY + bottomRightY) / 2;
-
-            childTrie = switch (quadrant) {
-                case NW -> new LeafTrie<>(topLeftX, topLeftY, midX, midY);
-                case NE -> new LeafTrie<>(midX, topLeftY, bottomRightX, midY);
-                case SW -> new LeafTrie<>(topLeftX, midY, midX, bottomRightY);
-                case SE -> new LeafTrie<>(midX, midY, bottomRightX, bottomRightY);
-            };
-
-            tries.put(quadrant, childTrie);
-        }
-
-        Trie<T> result = childTrie.insert(point);
-
-        if (result != childTrie) {
-            tries.put(quadrant, result);
+            childTrie = createLeaf(slot);
         }
 
+        tries[slot] = childTrie.insert(point, x, y);
         return this;
     }
 
@@ -118,8 +151,46 @@ class NodeTrie<T extends HasPoint> extends Trie<T> {
      */
     @Override
     Trie<T> insertReplace(T point) {
-        Quadrant quadrant = quadrantOf(point);
-        return tries.get(quadrant).insertReplace(point);
+        int slot = slotOf(point.x(), point.y());
+        Trie<T> childTrie = tries[slot];
+
+        if (childTrie == null) {
+            return insert(point);
+        }
+
+        tries[slot] = childTrie.insertReplace(point);
+        return this;
+    }
+
+    /**
+     * Description copied from class: {@link Trie}
+     * <p>Move given point to new coordinates, in place if it remains in the same leaf.
+     * If both positions are in the same quadrant the move is delegated on that child;
+     * otherwise the point is deleted from the old quadrant and inserted in the new one.
+     * The point is moved before changing this node, so a point that cannot be moved is left in place.
+     * @param point to be moved
+     * @param newX new x coordinate
+     * @param newY new y coordinate
+     * @return always true, since the point is inserted in this node if it was absent
+     */
+    @Override
+    boolean move(T point, double newX, double newY) {
+        double x = point.x();
+        double y = point.y();
+        int slot = slotOf(x, y);
+        int newSlot = slotOf(newX, newY);
+        Trie<T> childTrie = tries[slot];
+
+        if (childTrie != null && slot == newSlot && childTrie.move(point, newX, newY)) {
+            return true;
+        }
+
+        point.moveTo(newX, newY);
+        if (childTrie != null && slot != newSlot) {
+            replace(slot, childTrie.delete(point, x, y));
+        }
+        insert(point, newX, newY);
+        return true;
     }
 
     /**
@@ -132,14 +203,33 @@ class NodeTrie<T extends HasPoint> extends Trie<T> {
      */
     @Override
     void collectNear(double x, double y, double radius, Set<T> points) {
-        Collection<Trie<T>> listTries = getTries();
-        for (Trie<T> trie : listTries) {
-            if (trie.overlaps(x, y, radius)) {
+        for (Trie<T> trie : tries) {
+            if (trie != null && trie.overlaps(x, y, radius)) {
                 trie.collectNear(x, y, radius, points);
             }
         }
     }
 
+    /**
+     * Description copied from class: {@link Trie}
+     * <p>Pass points at a distance smaller or equal to radius from (x,y) to given action, until it returns false
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param radius from given point
+     * @param action applied to each point, returning false to stop
+     * @return false if the action stopped the traversal; true otherwise
+     */
+    @Override
+    boolean forEachNear(double x, double y, double radius, Predicate<? super T> action) {
+        for (Trie<T> trie : tries) {
+            if (trie != null && trie.overlaps(x, y, radius) && !trie.forEachNear(x, y, radius, action)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Description copied from class: {@link Trie}
      * <p>Collect all points in this node and its descendants in given set
@@ -147,20 +237,101 @@ class NodeTrie<T extends HasPoint> extends Trie<T> {
      */
     @Override
     void collectAll(Set<T> points) {
-        for (Quadrant quadrant : tries.keySet()) {
-            tries.get(quadrant).collectAll(points);
+        for (Trie<T> trie : tries) {
+            if (trie != null) {
+                trie.collectAll(points);
+            }
         }
     }
 
     /**
      * Description copied from class: {@link Trie}
-     * <p>Delete given point
+     * <p>Delete given point. Empty leaves are removed and, if the remaining children are leaves
+     * holding at most {@link Trie#getMergeThreshold()} points, they are merged in a single leaf.
      * @param point to delete
+     * @param x coordinate where the point was inserted
+     * @param y coordinate where the point was inserted
+     * @return changed parent node
      */
     @Override
-    void delete(T point) {
-        Quadrant quadrant = quadrantOf(point);
-        tries.get(quadrant).delete(point);
+    Trie<T> delete(T point, double x, double y) {
+        int slot = slotOf(x, y);
+        Trie<T> childTrie = tries[slot];
+
+        if (childTrie == null) {
+            return this;
+        }
+
+        replace(slot, childTrie.delete(point, x, y));
+        return mergeIfUnder(getBucketMergeThreshold());
+    }
+
+    /**
+     * Description copied from class: {@link Trie}
+     * <p>Remove empty leaves and merge descendants whose points fit in a single leaf
+     * @return changed parent node
+     */
+    @Override
+    Trie<T> compact() {
+        for (int slot = 0; slot < tries.length; slot++) {
+            if (tries[slot] != null) {
+                replace(slot, tries[slot].compact());
+            }
+        }
+
+        return mergeIfUnder(getBucketCapacity());
+    }
+
+    /**
+     * Replace the child trie in given slot, removing it if it is an empty leaf
+     * @param slot of child
+     * @param result trie replacing the child
+     */
+    private void replace(int slot, Trie<T> result) {
+        if (result instanceof LeafTrie<T> leaf && leaf.size() == 0) {
+            tries[slot] = null;
+        } else {
+            tries[slot] = result;
+        }
+    }
+
+    /**
+     * Merge children in a single leaf if all of them are leaves with at most given number of points
+     * @param threshold maximum number of points to merge
+     * @return a new leaf with all points if merged; this node otherwise
+     */
+    private Trie<T> mergeIfUnder(int threshold) {
+        int size = 0;
+
+        for (Trie<T> childTrie : tries) {
+            if (childTrie == null) {
+                continue;
+            }
+            if (!(childTrie instanceof LeafTrie<T> leaf)) {
+                return this;
+            }
+            size += leaf.size();
+        }
+
+        if (size > threshold) {
+            return this;
+        }
+
+        LeafTrie<T> merged = new LeafTrie<>(topLeftX, topLeftY, bottomRightX, bottomRightY, bucketCapacity);
+
+        for (Trie<T> childTrie : tries) {
+            if (childTrie == null) {
+                continue;
+            }
+
+            LeafTrie<T> leaf = (LeafTrie<T>) childTrie;
+
+            for (int i = 0; i < leaf.size(); i++) {
+                merged.append(leaf.get(i), leaf.x(i), leaf.y(i));
+            }
+        }
+
+        return merged;
     }
 
     /**
@@ -176,7 +347,7 @@ class NodeTrie<T extends HasPoint> extends Trie<T> {
     @Override
     public String toString() {
         return "NodeTrie{" +
-                "tries=" + tries +
+                "tries=" + Arrays.toString(tries) +
                 ", bottomRightX=" + bottomRightX +
                 ", bottomRightY=" + bottomRightY +
                 ", topLeftX=" + topLeftX +
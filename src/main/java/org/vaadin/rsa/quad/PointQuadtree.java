@@ -1,6 +1,11 @@
 package org.vaadin.rsa.quad;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class follows the Facade design pattern and presents a single access point to manage quad trees.
@@ -21,7 +26,32 @@ public class PointQuadtree<T extends HasPoint> implements Iterable<T> {
      * @param bottomRightY y coordinate of bottom right corner
      */
     public PointQuadtree(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY) {
-        top = new LeafTrie<>(topLeftX, topLeftY, bottomRightX, bottomRightY);
+        this(topLeftX, topLeftY, bottomRightX, bottomRightY, 0);
+    }
+
+    /**
+     * Create a quad tree for points in a rectangle with given top left and bottom right corners,
+     * and buckets with given capacity instead of the default {@link Trie#getCapacity()}.
+     * @param topLeftX x coordinate of top left corner
+     * @param topLeftY y coordinate of top left corner
+     * @param bottomRightX x coordinate of bottom right corner
+     * @param bottomRightY y coordinate of bottom right corner
+     * @param capacity of buckets in this quad tree, or 0 to use the default capacity
+     */
+    public PointQuadtree(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+
+        top = new LeafTrie<>(topLeftX, topLeftY, bottomRightX, bottomRightY, capacity);
+    }
+
+    /**
+     * Capacity of buckets in this quad tree
+     * @return capacity
+     */
+    public int getCapacity() {
+        return top.getBucketCapacity();
     }
 
     /**
@@ -38,9 +68,19 @@ public class PointQuadtree<T extends HasPoint> implements Iterable<T> {
      * @param point to check
      * @return true if point is within boundaries, false otherwise
      */
-    private boolean inBoundaries(T point) {
-        return top.topLeftX <= point.x() && point.x() <= top.bottomRightX &&
-               top.bottomRightY <= point.y() && point.y() <= top.topLeftY;
+    boolean inBoundaries(T point) {
+        return inBoundaries(point.x(), point.y());
+    }
+
+    /**
+     * Checks if coordinates are within the quadtree boundaries
+     * @param x coordinate to check
+     * @param y coordinate to check
+     * @return true if coordinates are within boundaries, false otherwise
+     */
+    boolean inBoundaries(double x, double y) {
+        return top.topLeftX <= x && x <= top.bottomRightX &&
+               top.bottomRightY <= y && y <= top.topLeftY;
     }
 
     /**
@@ -54,6 +94,58 @@ public class PointQuadtree<T extends HasPoint> implements Iterable<T> {
         top = top.insert(point);
     }
 
+    /**
+     * Create a quad tree for points in a rectangle with given top left and bottom right corners,
+     * loaded with given points using {@link #bulkLoad(Collection)}.
+     * @param topLeftX x coordinate of top left corner
+     * @param topLeftY y coordinate of top left corner
+     * @param bottomRightX x coordinate of bottom right corner
+     * @param bottomRightY y coordinate of bottom right corner
+     * @param points to be inserted
+     * @return quad tree with given points
+     * @param <T> type of points
+     */
+    public static <T extends HasPoint> PointQuadtree<T> fromPoints(double topLeftX, double topLeftY,
+                                                                   double bottomRightX, double bottomRightY,
+                                                                   Collection<? extends T> points) {
+        PointQuadtree<T> quadtree = new PointQuadtree<>(topLeftX, topLeftY, bottomRightX, bottomRightY);
+        quadtree.bulkLoad(points);
+        return quadtree;
+    }
+
+    /**
+     * Insert given points in the QuadTree. Instead of inserting them one by one, the QuadTree is rebuilt
+     * top-down with these and the points already in it, partitioning them by quadrant in a single pass
+     * per level. Large quadrants are built in parallel in the common fork-join pool.
+     * As in {@link #insert(HasPoint)}, points equal to others in the QuadTree are ignored.
+     * @param points to be inserted
+     * @throws PointOutOfBoundException if any point is out of boundaries, in which case none is inserted
+     */
+    public void bulkLoad(Collection<? extends T> points) {
+        for (T point : points) {
+            if (!inBoundaries(point)) {
+                throw new PointOutOfBoundException();
+            }
+        }
+
+        List<T> all = new ArrayList<>();
+
+        forEach(all::add);
+        all.addAll(points);
+
+        Object[] elements = all.toArray();
+        double[] xs = new double[elements.length];
+        double[] ys = new double[elements.length];
+
+        for (int i = 0; i < elements.length; i++) {
+            xs[i] = all.get(i).x();
+            ys[i] = all.get(i).y();
+        }
+
+        top = ForkJoinPool.commonPool().invoke(new BulkLoader<>(elements, xs, ys, 0, elements.length,
+                top.topLeftX, top.topLeftY, top.bottomRightX, top.bottomRightY, top.bucketCapacity));
+    }
+
     /**
      * Insert point, replacing existing point in the same position
      * @param point point to be inserted
@@ -65,6 +157,26 @@ public class PointQuadtree<T extends HasPoint> implements Iterable<T> {
         top = top.insertReplace(point);
     }
 
+    /**
+     * Move given point to new coordinates, using {@link HasPoint#moveTo(double, double)} to change them.
+     * The tree is descended once: if the point stays in the same leaf it is updated in place,
+     * otherwise it is relocated from the smallest node containing both positions.
+     * If the point is not in the QuadTree then it is moved and inserted.
+     * @param point to be moved
+     * @param newX new x coordinate
+     * @param newY new y coordinate
+     */
+    public void move(T point, double newX, double newY) {
+        if (!inBoundaries(newX, newY)) {
+            throw new PointOutOfBoundException();
+        }
+
+        if (!top.move(point, newX, newY)) {
+            point.moveTo(newX, newY);
+            top = top.insert(point);
+        }
+    }
+
     /**
      * Returns a set of points at a distance smaller or equal to radius from point with given coordinates.
      * @param x coordinate of point
@@ -78,6 +190,82 @@ public class PointQuadtree<T extends HasPoint> implements Iterable<T> {
         return near;
     }
 
+    /**
+     * Apply given action to each point at a distance smaller or equal to radius from point with given coordinates.
+     * Points are passed as they are found, without collecting them. The action must not change the QuadTree.
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param radius from given point
+     * @param action to apply to each point
+     */
+    public void forEachNear(double x, double y, double radius, Consumer<? super T> action) {
+        top.forEachNear(x, y, radius, point -> {
+            action.accept(point);
+            return true;
+        });
+    }
+
+    /**
+     * Returns a point at a distance smaller or equal to radius from point with given coordinates
+     * that satisfies given condition. The search stops as soon as such a point is found,
+     * hence it is not necessarily the nearest one. The condition must not change the QuadTree.
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param radius from given point
+     * @param condition of acceptable points
+     * @return a point satisfying the condition, if found; null otherwise
+     */
+    public T findAnyNear(double x, double y, double radius, Predicate<? super T> condition) {
+        FirstMatch<T> visitor = new FirstMatch<>(condition);
+        top.forEachNear(x, y, radius, visitor);
+        return visitor.found;
+    }
+
+    /**
+     * Action for {@link #findAnyNear(double, double, double, Predicate)},
+     * recording the first point satisfying a condition and stopping the traversal.
+     */
+    static class FirstMatch<T> implements Predicate<T> {
+        private final Predicate<? super T> condition;
+        T found;
+
+        FirstMatch(Predicate<? super T> condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public boolean test(T point) {
+            if (condition.test(point)) {
+                found = point;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the k points nearest to given coordinates, within a maximum radius and accepted by a filter.
+     * Points are searched best-first, visiting tries by increasing distance, and the search stops
+     * as soon as k points are found.
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param k maximum number of points to return
+     * @param maxRadius maximum distance from given point
+     * @param filter of acceptable points (evaluated only on points within radius)
+     * @return list of at most k points, sorted by increasing distance, empty if k is 0
+     * @throws IllegalArgumentException if k is negative
+     */
+    public List<T> findNearest(double x, double y, int k, double maxRadius, Predicate<? super T> filter) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Number of points must not be negative");
+        }
+        if (k == 0) {
+            return new ArrayList<>();
+        }
+
+        return new NearestVisitor<T>(x, y, maxRadius, filter).search(top, k);
+    }
+
     /**
      * A set with all points in the QuadTree
      * @return set of instances of type {@link HasPoint}
@@ -93,11 +281,41 @@ public class PointQuadtree<T extends HasPoint> implements Iterable<T> {
      * @param point to be deleted
      */
     public void delete(T point) {
-        top.delete(point);
+        top = top.delete(point);
+    }
+
+    /**
+     * Delete given point, located with given coordinates instead of its current ones
+     * @param point to delete
+     * @param x coordinate where the point was inserted
+     * @param y coordinate where the point was inserted
+     */
+    void delete(T point, double x, double y) {
+        top = top.delete(point, x, y);
+    }
+
+    /**
+     * Compact the QuadTree, removing empty leaves and merging nodes whose points fit in a single leaf.
+     * Deletions already merge underfull nodes, hence this is only needed after changing the capacity
+     * or to reclaim memory after many deletions.
+     */
+    public void compact() {
+        top = top.compact();
+    }
+
+    /**
+     * Statistics on the internal structure of this QuadTree, such as depth and number of nodes.
+     * @return statistics of this QuadTree
+     */
+    public QuadtreeStatistics getStatistics() {
+        StatisticsVisitor<T> visitor = new StatisticsVisitor<>();
+        top.accept(visitor);
+        return visitor.getStatistics();
     }
 
     /**
-     * Returns an iterator over the points stored in the quad tree
+     * Returns an iterator over the points stored in the quad tree.
+     * Points are visited lazily, hence the QuadTree must not be changed while iterating.
      * @return iterator in interface Iterable<T extends HasPoint>
      */
     @Override
@@ -106,58 +324,91 @@ public class PointQuadtree<T extends HasPoint> implements Iterable<T> {
     }
 
     /**
-     * Iterator over points stored in the internal node structure It traverses the tree depth first,
-     * using coroutine with threads, and collects all points in no particular order.
-     * An instance of this class is returned by {@link PointQuadtree#iterator()}
+     * Returns a spliterator over the points stored in the quad tree, that splits on the quadrants of nodes.
+     * Points are visited lazily, hence the QuadTree must not be changed while traversing it.
+     * @return spliterator in interface Iterable<T extends HasPoint>
      */
-    public class PointIterator implements Iterator<T>, Runnable, Visitor<T> {
+    @Override
+    public Spliterator<T> spliterator() {
+        return new PointSpliterator<>(top);
+    }
 
-        private Iterator<T> iterator;
-        private final List<T> allPoints = new ArrayList<>();
+    /**
+     * Returns a sequential stream of the points stored in the quad tree
+     * @return stream of points
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream of the points stored in the quad tree, processing quadrants in different threads.
+     * The QuadTree must not be changed while the stream is processed.
+     * @return parallel stream of points
+     */
+    public Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Iterator over points stored in the internal node structure. It traverses the tree depth first,
+     * keeping a stack of tries still to visit, and returns points in no particular order.
+     * Points are visited one leaf at a time, as requested, hence iterations may stop early without
+     * visiting the whole tree. An instance of this class is returned by {@link PointQuadtree#iterator()}
+     */
+    public class PointIterator implements Iterator<T>, Visitor<T> {
+
+        private final Deque<Trie<T>> pending = new ArrayDeque<>();
+        private LeafTrie<T> leaf;
+        private int index;
 
         /**
          * Creates a Point iterator.
          */
         PointIterator() {
-            run();
-        }
-
-        @Override
-        public void run() {
-            top.accept(this);
-            iterator = allPoints.iterator();
+            pending.push(top);
         }
 
         @Override
         public boolean hasNext() {
-            return iterator.hasNext();
+            while ((leaf == null || index >= leaf.size()) && !pending.isEmpty()) {
+                leaf = null;
+                pending.pop().accept(this);
+            }
+            return leaf != null && index < leaf.size();
         }
 
         @Override
         public T next() {
-            return iterator.next();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return leaf.get(index++);
         }
 
         /**
          * Description copied from interface: {@link Visitor}
-         * <p>Do a visit to a node in the composite structure
+         * <p>Do a visit to a node in the composite structure, stacking its children
          * @param node to be visited
          */
         @Override
         public void visit(NodeTrie<T> node) {
-            for (Trie<T> childTrie: node.getTries()) {
-                childTrie.accept(this);
+            for (Trie<T> childTrie : node.tries) {
+                if (childTrie != null) {
+                    pending.push(childTrie);
+                }
             }
         }
 
         /**
          * Description copied from interface: {@link Visitor}
-         * <p>Do a visit to a leaf in the composite structure
+         * <p>Do a visit to a leaf in the composite structure, making it the source of next points
          * @param leaf to be visited
          */
         @Override
         public void visit(LeafTrie<T> leaf) {
-            allPoints.addAll(leaf.getPoints());
+            this.leaf = leaf;
+            index = 0;
         }
     }
 }
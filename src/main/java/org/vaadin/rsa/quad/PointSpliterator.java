@@ -0,0 +1,135 @@
+package org.vaadin.rsa.quad;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the points stored in a trie, used for streams of {@link PointQuadtree}.
+ * It traverses the tries depth first, keeping a stack of tries still to visit, one leaf at a time.
+ * Splits hand over half of the pending tries, replacing a single pending node by its children.
+ * Nodes whose children are all leaves hold at most 4 &times; capacity points and are not split further.
+ */
+class PointSpliterator<T extends HasPoint> implements Spliterator<T>, Visitor<T> {
+
+    private final Deque<Trie<T>> pending = new ArrayDeque<>();
+    private LeafTrie<T> leaf;
+    private int index;
+    private long estimate;
+
+    /**
+     * Create a spliterator over the points of given trie
+     * @param top trie to traverse
+     */
+    PointSpliterator(Trie<T> top) {
+        this(Long.MAX_VALUE);
+        pending.push(top);
+    }
+
+    private PointSpliterator(long estimate) {
+        this.estimate = estimate;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while ((leaf == null || index >= leaf.size()) && !pending.isEmpty()) {
+            leaf = null;
+            pending.pop().accept(this);
+        }
+
+        if (leaf == null || index >= leaf.size()) {
+            return false;
+        }
+
+        action.accept(leaf.get(index++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        while (leaf != null && index < leaf.size()) {
+            action.accept(leaf.get(index++));
+        }
+        leaf = null;
+
+        while (!pending.isEmpty()) {
+            pending.pop().accept(this);
+
+            if (leaf != null) {
+                for (index = 0; index < leaf.size(); index++) {
+                    action.accept(leaf.get(index));
+                }
+                leaf = null;
+            }
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        while (pending.size() == 1 && pending.peek() instanceof NodeTrie<T> node && !hasOnlyLeaves(node)) {
+            pending.pop().accept(this);
+        }
+
+        if (pending.size() < 2) {
+            return null;
+        }
+
+        PointSpliterator<T> prefix = new PointSpliterator<>(estimate >>>= 1);
+
+        for (int count = pending.size() / 2; count > 0; count--) {
+            prefix.pending.addFirst(pending.pollLast());
+        }
+
+        return prefix;
+    }
+
+    /**
+     * Checks if all children of given node are leaves
+     * @param node to check
+     * @return true if the node has no children nodes; false otherwise
+     */
+    private boolean hasOnlyLeaves(NodeTrie<T> node) {
+        for (Trie<T> childTrie : node.tries) {
+            if (childTrie instanceof NodeTrie) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return DISTINCT | NONNULL;
+    }
+
+    /**
+     * Description copied from interface: {@link Visitor}
+     * <p>Do a visit to a node in the composite structure, stacking its children
+     * @param node to be visited
+     */
+    @Override
+    public void visit(NodeTrie<T> node) {
+        for (Trie<T> childTrie : node.tries) {
+            if (childTrie != null) {
+                pending.push(childTrie);
+            }
+        }
+    }
+
+    /**
+     * Description copied from interface: {@link Visitor}
+     * <p>Do a visit to a leaf in the composite structure, making it the source of next points
+     * @param leaf to be visited
+     */
+    @Override
+    public void visit(LeafTrie<T> leaf) {
+        this.leaf = leaf;
+        index = 0;
+    }
+}
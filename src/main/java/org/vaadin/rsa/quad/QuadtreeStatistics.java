@@ -0,0 +1,21 @@
+package org.vaadin.rsa.quad;
+
+/**
+ * Statistics on the internal structure of a {@link PointQuadtree}, useful to check its balance and compaction.
+ * @param depth number of levels, where a quad tree with a single leaf has depth 1
+ * @param nodes number of nodes with descendants
+ * @param leaves number of leaves
+ * @param points number of points
+ */
+public record QuadtreeStatistics(int depth, int nodes, int leaves, int points) {
+
+    /**
+     * Combine these statistics with those of a disjoint quad tree, as when both are parts of a larger structure.
+     * @param other statistics to combine
+     * @return combined statistics
+     */
+    public QuadtreeStatistics combine(QuadtreeStatistics other) {
+        return new QuadtreeStatistics(Math.max(depth, other.depth), nodes + other.nodes,
+                leaves + other.leaves, points + other.points);
+    }
+}
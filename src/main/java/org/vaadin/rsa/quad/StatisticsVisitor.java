@@ -0,0 +1,54 @@
+package org.vaadin.rsa.quad;
+
+/**
+ * A visitor collecting statistics of the tries it visits, namely their depth and number of nodes.
+ * An instance of this class is used by {@link PointQuadtree#getStatistics()}
+ */
+class StatisticsVisitor<T extends HasPoint> implements Visitor<T> {
+
+    private int level;
+    private int depth;
+    private int nodes;
+    private int leaves;
+    private int points;
+
+    /**
+     * Statistics of the tries visited so far
+     * @return statistics
+     */
+    QuadtreeStatistics getStatistics() {
+        return new QuadtreeStatistics(depth, nodes, leaves, points);
+    }
+
+    /**
+     * Description copied from interface: {@link Visitor}
+     * <p>Do a visit to a node in the composite structure
+     * @param node to be visited
+     */
+    @Override
+    public void visit(NodeTrie<T> node) {
+        nodes++;
+        level++;
+        depth = Math.max(depth, level);
+
+        for (Trie<T> childTrie : node.tries) {
+            if (childTrie != null) {
+                childTrie.accept(this);
+            }
+        }
+
+        level--;
+    }
+
+    /**
+     * Description copied from interface: {@link Visitor}
+     * <p>Do a visit to a leaf in the composite structure
+     * @param leaf to be visited
+     */
+    @Override
+    public void visit(LeafTrie<T> leaf) {
+        leaves++;
+        points += leaf.size();
+        depth = Math.max(depth, level + 1);
+    }
+}
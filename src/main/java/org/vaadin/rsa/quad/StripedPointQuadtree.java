@@ -0,0 +1,525 @@
+package org.vaadin.rsa.quad;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * A thread safe quad tree that splits its region in a grid of stripes &times; stripes tiles.
+ * Each tile is an independent {@link PointQuadtree} guarded by its own read/write lock,
+ * hence operations on different regions proceed in parallel and queries on the same region share the lock.
+ * <p>Each operation holds at most one lock at a time, so there are no deadlocks between tiles.
+ * Points moving between tiles (delete followed by insert) are briefly absent from the tree.
+ */
+public class StripedPointQuadtree<T extends HasPoint> extends PointQuadtree<T> {
+
+    private final int stripes;
+    private final double[] columns;
+    private final double[] rows;
+    private final PointQuadtree<T>[] tiles;
+    private final ReadWriteLock[] locks;
+
+    /**
+     * Create a striped quad tree for points in a rectangle with given top left and bottom right corners.
+     * @param topLeftX x coordinate of top left corner
+     * @param topLeftY y coordinate of top left corner
+     * @param bottomRightX x coordinate of bottom right corner
+     * @param bottomRightY y coordinate of bottom right corner
+     * @param stripes number of tiles in each dimension
+     */
+    public StripedPointQuadtree(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY,
+                                int stripes) {
+        this(topLeftX, topLeftY, bottomRightX, bottomRightY, stripes, 0);
+    }
+
+    /**
+     * Create a striped quad tree for points in a rectangle with given top left and bottom right corners,
+     * with tiles having buckets of given capacity.
+     * @param topLeftX x coordinate of top left corner
+     * @param topLeftY y coordinate of top left corner
+     * @param bottomRightX x coordinate of bottom right corner
+     * @param bottomRightY y coordinate of bottom right corner
+     * @param stripes number of tiles in each dimension
+     * @param capacity of buckets in tiles, or 0 to use the default capacity
+     */
+    public StripedPointQuadtree(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY,
+                                int stripes, int capacity) {
+        super(topLeftX, topLeftY, bottomRightX, bottomRightY, capacity);
+
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be positive");
+        }
+
+        this.stripes = stripes;
+        this.columns = split(topLeftX, bottomRightX);
+        this.rows = split(topLeftY, bottomRightY);
+        @SuppressWarnings("unchecked")
+        PointQuadtree<T>[] tiles = (PointQuadtree<T>[]) new PointQuadtree<?>[stripes * stripes];
+        this.tiles = tiles;
+        this.locks = new ReadWriteLock[stripes * stripes];
+
+        for (int row = 0; row < stripes; row++) {
+            for (int column = 0; column < stripes; column++) {
+                int tile = row * stripes + column;
+                tiles[tile] = new PointQuadtree<>(columns[column], rows[row], columns[column + 1], rows[row + 1],
+                        capacity);
+                locks[tile] = new ReentrantReadWriteLock();
+            }
+        }
+    }
+
+    /**
+     * Number of tiles in each dimension
+     * @return number of stripes
+     */
+    public int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * Boundaries of tiles between given coordinates, including both.
+     * @param from first coordinate
+     * @param to last coordinate
+     * @return array with stripes + 1 boundaries
+     */
+    private double[] split(double from, double to) {
+        double[] boundaries = new double[stripes + 1];
+
+        for (int i = 0; i < stripes; i++) {
+            boundaries[i] = from + (to - from) * i / stripes;
+        }
+        boundaries[stripes] = to;
+
+        return boundaries;
+    }
+
+    /**
+     * Index of stripe containing given coordinate, clamped to valid indexes.
+     * Boundaries may be either increasing (x) or decreasing (y).
+     * @param boundaries of stripes
+     * @param coordinate to locate
+     * @return index of stripe
+     */
+    private int stripeOf(double[] boundaries, double coordinate) {
+        double first = boundaries[0];
+        double last = boundaries[stripes];
+        int index = (int) ((coordinate - first) / (last - first) * stripes);
+
+        index = Math.max(0, Math.min(stripes - 1, index));
+
+        // correct rounding errors so that the coordinate is within the tile boundaries
+        while (index > 0 && isBefore(coordinate, boundaries[index], first, last)) {
+            index--;
+        }
+        while (index < stripes - 1 && !isBefore(coordinate, boundaries[index + 1], first, last)) {
+            index++;
+        }
+
+        return index;
+    }
+
+    private static boolean isBefore(double coordinate, double boundary, double first, double last) {
+        return first <= last ? coordinate < boundary : coordinate > boundary;
+    }
+
+    /**
+     * Index of the tile containing given coordinates
+     * @param x coordinate
+     * @param y coordinate
+     * @return index of tile
+     */
+    int tileOf(double x, double y) {
+        return stripeOf(rows, y) * stripes + stripeOf(columns, x);
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Find a recorded point with the same coordinates of given point
+     * @param point with requested coordinates
+     * @return recorded point, if found; null otherwise
+     */
+    @Override
+    public T find(T point) {
+        int tile = tileOf(point.x(), point.y());
+
+        locks[tile].readLock().lock();
+        try {
+            return tiles[tile].find(point);
+        } finally {
+            locks[tile].readLock().unlock();
+        }
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Insert given point in the QuadTree
+     * @param point to be inserted
+     */
+    @Override
+    public void insert(T point) {
+        if (!inBoundaries(point)) {
+            throw new PointOutOfBoundException();
+        }
+
+        int tile = tileOf(point.x(), point.y());
+
+        locks[tile].writeLock().lock();
+        try {
+            tiles[tile].insert(point);
+        } finally {
+            locks[tile].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Insert given points in the QuadTree. Points are grouped by tile and each tile is bulk loaded
+     * under its own lock, in parallel with other tiles.
+     * @param points to be inserted
+     * @throws PointOutOfBoundException if any point is out of boundaries, in which case none is inserted
+     */
+    @Override
+    public void bulkLoad(Collection<? extends T> points) {
+        List<List<T>> groups = new ArrayList<>(tiles.length);
+
+        for (int tile = 0; tile < tiles.length; tile++) {
+            groups.add(new ArrayList<>());
+        }
+
+        for (T point : points) {
+            if (!inBoundaries(point)) {
+                throw new PointOutOfBoundException();
+            }
+            groups.get(tileOf(point.x(), point.y())).add(point);
+        }
+
+        IntStream.range(0, tiles.length).filter(tile -> !groups.get(tile).isEmpty()).parallel().forEach(tile -> {
+            locks[tile].writeLock().lock();
+            try {
+                tiles[tile].bulkLoad(groups.get(tile));
+            } finally {
+                locks[tile].writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Insert point, replacing existing point in the same position
+     * @param point point to be inserted
+     */
+    @Override
+    public void insertReplace(T point) {
+        if (!inBoundaries(point)) {
+            throw new PointOutOfBoundException();
+        }
+
+        int tile = tileOf(point.x(), point.y());
+
+        locks[tile].writeLock().lock();
+        try {
+            tiles[tile].insertReplace(point);
+        } finally {
+            locks[tile].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Move given point to new coordinates. Moves within a tile are made under its lock;
+     * moves between tiles move the point under the lock of its tile, then delete it from that tile
+     * and insert it in the other, so a point that cannot be moved is left in place.
+     * @param point to be moved
+     * @param newX new x coordinate
+     * @param newY new y coordinate
+     */
+    @Override
+    public void move(T point, double newX, double newY) {
+        if (!inBoundaries(newX, newY)) {
+            throw new PointOutOfBoundException();
+        }
+
+        double x = point.x();
+        double y = point.y();
+        int from = tileOf(x, y);
+        int to = tileOf(newX, newY);
+
+        if (from == to) {
+            locks[to].writeLock().lock();
+            try {
+                tiles[to].move(point, newX, newY);
+            } finally {
+                locks[to].writeLock().unlock();
+            }
+            return;
+        }
+
+        locks[from].writeLock().lock();
+        try {
+            point.moveTo(newX, newY);
+            tiles[from].delete(point, x, y);
+        } finally {
+            locks[from].writeLock().unlock();
+        }
+
+        locks[to].writeLock().lock();
+        try {
+            tiles[to].insert(point);
+        } finally {
+            locks[to].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Returns a set of points at a distance smaller or equal to radius from point with given coordinates.
+     * Only tiles overlapping the bounding box of the circle are searched.
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param radius from given point
+     * @return set of instances of type {@link HasPoint}
+     */
+    @Override
+    public Set<T> findNear(double x, double y, double radius) {
+        Set<T> near = new HashSet<>();
+        int fromColumn = stripeOf(columns, x - radius);
+        int toColumn = stripeOf(columns, x + radius);
+        int fromRow = Math.min(stripeOf(rows, y - radius), stripeOf(rows, y + radius));
+        int toRow = Math.max(stripeOf(rows, y - radius), stripeOf(rows, y + radius));
+
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                int tile = row * stripes + column;
+
+                locks[tile].readLock().lock();
+                try {
+                    near.addAll(tiles[tile].findNear(x, y, radius));
+                } finally {
+                    locks[tile].readLock().unlock();
+                }
+            }
+        }
+
+        return near;
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Apply given action to each point at a distance smaller or equal to radius from point with given coordinates.
+     * The action is applied under the read lock of the tile of each point, hence it must not change this QuadTree.
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param radius from given point
+     * @param action to apply to each point
+     */
+    @Override
+    public void forEachNear(double x, double y, double radius, Consumer<? super T> action) {
+        forEachNearInTiles(x, y, radius, point -> {
+            action.accept(point);
+            return true;
+        });
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Returns a point at a distance smaller or equal to radius from point with given coordinates
+     * that satisfies given condition. Tiles are searched until such a point is found.
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param radius from given point
+     * @param condition of acceptable points
+     * @return a point satisfying the condition, if found; null otherwise
+     */
+    @Override
+    public T findAnyNear(double x, double y, double radius, Predicate<? super T> condition) {
+        FirstMatch<T> firstMatch = new FirstMatch<>(condition);
+        forEachNearInTiles(x, y, radius, firstMatch);
+        return firstMatch.found;
+    }
+
+    /**
+     * Pass points near given coordinates to given action, tile by tile under their read locks,
+     * until it returns false. Only tiles overlapping the bounding box of the circle are searched.
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param radius from given point
+     * @param action applied to each point, returning false to stop
+     */
+    private void forEachNearInTiles(double x, double y, double radius, Predicate<? super T> action) {
+        int fromColumn = stripeOf(columns, x - radius);
+        int toColumn = stripeOf(columns, x + radius);
+        int fromRow = Math.min(stripeOf(rows, y - radius), stripeOf(rows, y + radius));
+        int toRow = Math.max(stripeOf(rows, y - radius), stripeOf(rows, y + radius));
+
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                int tile = row * stripes + column;
+
+                locks[tile].readLock().lock();
+                try {
+                    if (!tiles[tile].top.forEachNear(x, y, radius, action)) {
+                        return;
+                    }
+                } finally {
+                    locks[tile].readLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Returns the k points nearest to given coordinates, within a maximum radius and accepted by a filter.
+     * The nearest points of each tile overlapping the bounding box of the circle are merged.
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param k maximum number of points to return
+     * @param maxRadius maximum distance from given point
+     * @param filter of acceptable points (evaluated only on points within radius)
+     * @return list of at most k points, sorted by increasing distance, empty if k is 0
+     * @throws IllegalArgumentException if k is negative
+     */
+    @Override
+    public List<T> findNearest(double x, double y, int k, double maxRadius, Predicate<? super T> filter) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Number of points must not be negative");
+        }
+
+        List<T> nearest = new ArrayList<>();
+
+        if (k == 0) {
+            return nearest;
+        }
+
+        int fromColumn = stripeOf(columns, x - maxRadius);
+        int toColumn = stripeOf(columns, x + maxRadius);
+        int fromRow = Math.min(stripeOf(rows, y - maxRadius), stripeOf(rows, y + maxRadius));
+        int toRow = Math.max(stripeOf(rows, y - maxRadius), stripeOf(rows, y + maxRadius));
+
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                int tile = row * stripes + column;
+
+                locks[tile].readLock().lock();
+                try {
+                    nearest.addAll(tiles[tile].findNearest(x, y, k, maxRadius, filter));
+                } finally {
+                    locks[tile].readLock().unlock();
+                }
+            }
+        }
+
+        nearest.sort(Comparator.comparingDouble(point -> Trie.getSquaredDistance(x, y, point.x(), point.y())));
+        return nearest.size() > k ? new ArrayList<>(nearest.subList(0, k)) : nearest;
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>A set with all points in the QuadTree. Each tile is collected under its own lock.
+     * @return set of instances of type {@link HasPoint}
+     */
+    @Override
+    public Set<T> getAll() {
+        Set<T> all = new HashSet<>();
+
+        for (int tile = 0; tile < tiles.length; tile++) {
+            locks[tile].readLock().lock();
+            try {
+                all.addAll(tiles[tile].getAll());
+            } finally {
+                locks[tile].readLock().unlock();
+            }
+        }
+
+        return all;
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Delete given point from QuadTree, if it exists there
+     * @param point to be deleted
+     */
+    @Override
+    public void delete(T point) {
+        delete(point, point.x(), point.y());
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Delete given point, located with given coordinates, under the lock of their tile
+     * @param point to delete
+     * @param x coordinate where the point was inserted
+     * @param y coordinate where the point was inserted
+     */
+    @Override
+    void delete(T point, double x, double y) {
+        int tile = tileOf(x, y);
+
+        locks[tile].writeLock().lock();
+        try {
+            tiles[tile].delete(point, x, y);
+        } finally {
+            locks[tile].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Compact the QuadTree, one tile at a time.
+     */
+    @Override
+    public void compact() {
+        for (int tile = 0; tile < tiles.length; tile++) {
+            locks[tile].writeLock().lock();
+            try {
+                tiles[tile].compact();
+            } finally {
+                locks[tile].writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Description copied from class: {@link PointQuadtree}
+     * <p>Statistics on the internal structure of this QuadTree, combining those of all tiles.
+     * @return statistics of this QuadTree
+     */
+    @Override
+    public QuadtreeStatistics getStatistics() {
+        QuadtreeStatistics statistics = new QuadtreeStatistics(0, 0, 0, 0);
+
+        for (int tile = 0; tile < tiles.length; tile++) {
+            locks[tile].readLock().lock();
+            try {
+                statistics = statistics.combine(tiles[tile].getStatistics());
+            } finally {
+                locks[tile].readLock().unlock();
+            }
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the points stored in the quad tree.
+     * Changes after this method returns are not reflected by the iterator.
+     * @return iterator in interface Iterable<T extends HasPoint>
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return getAll().iterator();
+    }
+
+    /**
+     * Returns a spliterator over a snapshot of the points stored in the quad tree, hence streams of
+     * this QuadTree are not affected by concurrent changes.
+     * @return spliterator in interface Iterable<T extends HasPoint>
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return getAll().spliterator();
+    }
+}
@@ -1,6 +1,7 @@
 package org.vaadin.rsa.quad;
 
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * Abstract class common to all classes implementing the trie structure.
@@ -25,20 +26,35 @@ public abstract class Trie<T extends HasPoint> implements Element<T> {
     protected final double bottomRightY;
     protected final double topLeftX;
     protected final double topLeftY;
+    protected final int bucketCapacity;
     static int capacity = 10;
 
     /**
-     * Create an instance from the top left and right bottom points' coordinates.
+     * Create an instance from the top left and right bottom points' coordinates,
+     * with the default capacity of buckets.
      * @param topLeftX x coordinate of top left corner
      * @param topLeftY y coordinate of top left corner
      * @param bottomRightX x coordinate of bottom right corner
      * @param bottomRightY y coordinate of bottom right corner
      */
     protected Trie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY) {
+        this(topLeftX, topLeftY, bottomRightX, bottomRightY, 0);
+    }
+
+    /**
+     * Create an instance from the top left and right bottom points' coordinates and a capacity of buckets.
+     * @param topLeftX x coordinate of top left corner
+     * @param topLeftY y coordinate of top left corner
+     * @param bottomRightX x coordinate of bottom right corner
+     * @param bottomRightY y coordinate of bottom right corner
+     * @param bucketCapacity of buckets in this trie and its descendants, or 0 for the default capacity
+     */
+    protected Trie(double topLeftX, double topLeftY, double bottomRightX, double bottomRightY, int bucketCapacity) {
         this.topLeftX = topLeftX;
         this.topLeftY = topLeftY;
         this.bottomRightX = bottomRightX;
         this.bottomRightY = bottomRightY;
+        this.bucketCapacity = bucketCapacity;
     }
 
     /**
@@ -57,6 +73,31 @@ public abstract class Trie<T extends HasPoint> implements Element<T> {
         Trie.capacity = capacity;
     }
 
+    /**
+     * Maximum number of points in sibling leaves that are merged after a deletion.
+     * It is half the capacity, so that a merged leaf is not split again by the next insertions.
+     * @return merge threshold
+     */
+    public static int getMergeThreshold() {
+        return capacity / 2;
+    }
+
+    /**
+     * Capacity of buckets in this trie: its own, if given on creation, or the default capacity otherwise
+     * @return capacity
+     */
+    int getBucketCapacity() {
+        return bucketCapacity > 0 ? bucketCapacity : capacity;
+    }
+
+    /**
+     * Merge threshold of this trie, half its bucket capacity, as in {@link #getMergeThreshold()}
+     * @return merge threshold
+     */
+    int getBucketMergeThreshold() {
+        return getBucketCapacity() / 2;
+    }
+
     /**
      * Euclidean distance between two pair of coordinates of two points
      * @param x1 x coordinate of first point
@@ -66,30 +107,47 @@ public abstract class Trie<T extends HasPoint> implements Element<T> {
      * @return distance between given points
      */
     public static double getDistance(double x1, double y1, double x2, double y2) {
-        return Math.sqrt(Math.pow(x1 - x2, 2) + Math.pow(y1 - y2, 2));
+        return Math.sqrt(getSquaredDistance(x1, y1, x2, y2));
+    }
+
+    /**
+     * Squared Euclidean distance between two pair of coordinates of two points.
+     * Comparing squared distances with squared radii avoids computing square roots.
+     * @param x1 x coordinate of first point
+     * @param y1 y coordinate of first point
+     * @param x2 x coordinate of second point
+     * @param y2 y coordinate of first point
+     * @return squared distance between given points
+     */
+    public static double getSquaredDistance(double x1, double y1, double x2, double y2) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        return dx * dx + dy * dy;
     }
 
     /**
-     * Check if overlaps with given circle
+     * Squared distance from given point to the closest point of this rectangle (0 if inside it).
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @return squared distance to this rectangle
+     */
+    double getSquaredDistanceTo(double x, double y) {
+        double closestX = Math.max(topLeftX, Math.min(x, bottomRightX));
+        double closestY = Math.max(bottomRightY, Math.min(y, topLeftY));
+
+        return getSquaredDistance(x, y, closestX, closestY);
+    }
+
+    /**
+     * Check if overlaps with given circle, i.e. if the point of this rectangle closest to
+     * the center of the circle is within radius.
      * @param x coordinate of circle
      * @param y coordinate of circle
      * @param radius of circle
      * @return true if overlaps and false otherwise
      */
     boolean overlaps(double x, double y, double radius) {
-
-        boolean aux = topLeftX <= x && x <= bottomRightX &&
-                bottomRightY <= y && y <= topLeftY;
-
-        return aux ||
-                bottomRightX >= x - radius ||
-                topLeftX <= x + radius ||
-                bottomRightY <= y + radius ||
-                topLeftY >= y - radius ||
-                getDistance(x, y, topLeftX, topLeftY) <= radius ||
-                getDistance(x, y, bottomRightX, bottomRightY) <= radius ||
-                getDistance(x, y, topLeftX, bottomRightY) <= radius ||
-                getDistance(x, y, bottomRightX, topLeftY) <= radius;
+        return getSquaredDistanceTo(x, y) <= radius * radius;
     }
 
     /**
@@ -104,7 +162,18 @@ public abstract class Trie<T extends HasPoint> implements Element<T> {
      * @param point to be inserted
      * @return changed parent node
      */
-    abstract Trie<T> insert(T point);
+    Trie<T> insert(T point) {
+        return insert(point, point.x(), point.y());
+    }
+
+    /**
+     * Insert given point with given coordinates, that are recorded in leaves
+     * @param point to be inserted
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @return changed parent node
+     */
+    abstract Trie<T> insert(T point, double x, double y);
 
     /**
      * Insert given point, replacing existing points in same location
@@ -113,6 +182,16 @@ public abstract class Trie<T extends HasPoint> implements Element<T> {
      */
     abstract Trie<T> insertReplace(T point);
 
+    /**
+     * Move given point to new coordinates, in place if it remains in the same leaf.
+     * The point is located using its current coordinates and changed with {@link HasPoint#moveTo(double, double)}.
+     * @param point to be moved
+     * @param newX new x coordinate
+     * @param newY new y coordinate
+     * @return true if the point was moved and placed in this trie; false if it is absent (and was not moved)
+     */
+    abstract boolean move(T point, double newX, double newY);
+
     /**
      * Collect points at a distance smaller or equal to radius from (x,y) and place them in given list
      * @param x coordinate of point
@@ -122,6 +201,16 @@ public abstract class Trie<T extends HasPoint> implements Element<T> {
      */
     abstract void collectNear(double x, double y, double radius, Set<T> points);
 
+    /**
+     * Pass points at a distance smaller or equal to radius from (x,y) to given action, until it returns false
+     * @param x coordinate of point
+     * @param y coordinate of point
+     * @param radius from given point
+     * @param action applied to each point, returning false to stop
+     * @return false if the action stopped the traversal; true otherwise
+     */
+    abstract boolean forEachNear(double x, double y, double radius, Predicate<? super T> action);
+
     /**
      * Collect all points in this node and its descendants in given set
      * @param points set of {@link HasPoint} for collecting points
@@ -129,10 +218,28 @@ public abstract class Trie<T extends HasPoint> implements Element<T> {
     abstract void collectAll(Set<T> points);
 
     /**
-     * Delete given point
+     * Delete given point, merging descendants that became underfull
+     * @param point to delete
+     * @return changed parent node
+     */
+    Trie<T> delete(T point) {
+        return delete(point, point.x(), point.y());
+    }
+
+    /**
+     * Delete given point, located with given coordinates, merging descendants that became underfull
      * @param point to delete
+     * @param x coordinate where the point was inserted
+     * @param y coordinate where the point was inserted
+     * @return changed parent node
+     */
+    abstract Trie<T> delete(T point, double x, double y);
+
+    /**
+     * Remove empty leaves and merge descendants whose points fit in a single leaf
+     * @return changed parent node
      */
-    abstract void delete(T point);
+    abstract Trie<T> compact();
 
     @Override
     public String toString() {
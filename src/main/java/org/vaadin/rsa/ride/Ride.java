@@ -7,8 +7,10 @@ import org.vaadin.rsa.quad.HasPoint;
 import org.vaadin.rsa.user.User;
 
 import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
 
-import static org.vaadin.rsa.quad.Trie.getDistance;
+import static org.vaadin.rsa.quad.Trie.getSquaredDistance;
 
 /**
  * A user's (intention to) ride between two locations. The user can be either the driver of the passenger.
@@ -25,17 +27,19 @@ import static org.vaadin.rsa.quad.Trie.getDistance;
  */
 public class Ride implements HasPoint, RideMatchSorter {
 
-    private static long rideCounter = 1;
+    private static final AtomicLong rideCounter = new AtomicLong(1);
 
     private long id;
     private User user;
     private Location from;
-    private Location current; // ADDED
+    private volatile Location current; // ADDED
     private Location to;
     private String plate;
     private RideRole userRole;
     private float cost;
-    private RideMatch rideMatch;
+    private volatile RideMatch rideMatch;
+    private volatile long updated;
+    private volatile long concluded;
 
     /**
      * Creates a ride from given arguments. Current location is initialized as the starting point (from)
@@ -51,9 +55,10 @@ public class Ride implements HasPoint, RideMatchSorter {
         this.to = to;
         this.plate = plate;
         this.cost = cost;
-        this.id = rideCounter++;
+        this.id = rideCounter.getAndIncrement();
         this.userRole = this.plate == null ? RideRole.PASSENGER : RideRole.DRIVER;
         this.current = from;
+        this.updated = System.currentTimeMillis();
     }
 
     /**
@@ -64,6 +69,14 @@ public class Ride implements HasPoint, RideMatchSorter {
         return cost;
     }
 
+    /**
+     * Time when this ride was concluded, in milliseconds since the epoch
+     * @return conclusion time, or 0 if not concluded
+     */
+    public long getConcluded() {
+        return concluded;
+    }
+
     /**
      * Get current location of this ride
      * @return current location
@@ -120,6 +133,14 @@ public class Ride implements HasPoint, RideMatchSorter {
         return to;
     }
 
+    /**
+     * Time when this ride was created or last updated, in milliseconds since the epoch
+     * @return last update time
+     */
+    public long getUpdated() {
+        return updated;
+    }
+
     /**
      * User of this ride
      * @return the user
@@ -128,6 +149,14 @@ public class Ride implements HasPoint, RideMatchSorter {
         return user;
     }
 
+    /**
+     * This ride was concluded by its user
+     * @return true if this ride is concluded
+     */
+    public boolean isConcluded() {
+        return concluded != 0;
+    }
+
     /**
      * Is the user the driver in this ride?
      * @return true if user is the driver, false otherwise
@@ -152,6 +181,14 @@ public class Ride implements HasPoint, RideMatchSorter {
         return userRole == RideRole.PASSENGER;
     }
 
+    /**
+     * Mark this ride as concluded at given time
+     * @param concluded time in milliseconds since the epoch
+     */
+    public void setConcluded(long concluded) {
+        this.concluded = concluded;
+    }
+
     /**
      * Change cost of this ride (only meaningful for driver)
      * @param cost the cost to set
@@ -201,6 +238,14 @@ public class Ride implements HasPoint, RideMatchSorter {
         this.to = to;
     }
 
+    /**
+     * Record the time of the last update of this ride
+     * @param updated time in milliseconds since the epoch
+     */
+    public void setUpdated(long updated) {
+        this.updated = updated;
+    }
+
     /**
      * Change user of this ride
      * @param user to set
@@ -229,6 +274,33 @@ public class Ride implements HasPoint, RideMatchSorter {
         return current.y();
     }
 
+    /**
+     * Description copied from interface: {@link HasPoint}
+     * <p>Change coordinates of this point, by changing its current location.
+     * @param x new coordinate
+     * @param y new coordinate
+     */
+    @Override
+    public void moveTo(double x, double y) {
+        current = new Location(x, y);
+    }
+
+    /**
+     * Provides a function scoring rides that may be matched with this one, according to the preference of its user.
+     * Lower scores are better and scores are consistent with {@link #getComparator()}:
+     * cost of the ride, squared distance to the current location, or symmetric of the average stars of its user.
+     * @return function from opposite rides to their sort keys
+     */
+    public ToDoubleFunction<Ride> getScorer() {
+        PreferredMatch preference = user.getPreferredMatch();
+
+        return switch (preference) {
+            case CHEAPER -> Ride::getCost;
+            case CLOSER -> other -> getSquaredDistance(x(), y(), other.x(), other.y());
+            case BETTER -> other -> -other.getUser().getAverage(other.getRideRole());
+        };
+    }
+
     /**
      * Get a comparator of {@link RideMatch} instances for the given ride.
      * Instances of RideMatchInfo are compared based on the preferences of the ride's user ({@link PreferredMatch}).
@@ -241,38 +313,33 @@ public class Ride implements HasPoint, RideMatchSorter {
      *       the ride with the cheapest cost is the smaller</li>
      * </ul>
      * If the two matches have the same average/distance/cost then they are considered equal (returns 0).
+     * <p>Matches are scored by {@link #getScorer()} on each comparison, hence changes in averages and locations
+     * are taken into account. Use {@link #getKeyComparator()} to sort many matches.
      * @return a comparator of {@link RideMatch}
      */
     @Override
     public Comparator<RideMatch> getComparator() {
-        PreferredMatch preference = user.getPreferredMatch();
+        ToDoubleFunction<Ride> scorer = getScorer();
 
-        return (a, b) -> {
-            Ride oppositeRideA = a.getOppositeRide(this);
-            Ride oppositeRideB = b.getOppositeRide(this);
-
-            switch (preference) {
-                case CHEAPER -> {
-                    float costA = oppositeRideA.getCost();
-                    float costB = oppositeRideB.getCost();
-                    return Float.compare(costA, costB);
-                }
-                case CLOSER -> {
-                    double distanceA = getDistance(current.x(), current.y(), oppositeRideA.getCurrent().x(), oppositeRideA.getCurrent().y());
-                    double distanceB = getDistance(current.x(), current.y(), oppositeRideB.getCurrent().x(), oppositeRideB.getCurrent().y());
-                    return Double.compare(distanceA, distanceB);
-                }
-                case BETTER -> {
-                    double starsA = oppositeRideA.getUser().getAverage(oppositeRideA.getRideRole());
-                    double starsB = oppositeRideB.getUser().getAverage(oppositeRideB.getRideRole());
-                    // in this case it is inverted because unlike the others, we want the highest value
-                    return Double.compare(starsB, starsA);
-                }
-
-                default -> {
-                    return 0;
-                }
-            }
-        };
+        return Comparator.comparingDouble(match -> scorer.applyAsDouble(match.getOppositeRide(this)));
+    }
+
+    /**
+     * Provides a comparator of {@link RideMatch} with the same order as {@link #getComparator()}.
+     * When the preference is BETTER, each match is scored only once, when first compared, and its sort key
+     * (the average stars of the other user) is kept in the match ({@link RideMatch#getKey(Ride)}).
+     * Hence, sorting n matches computes n averages instead of O(n log n), comparisons read primitive keys,
+     * and the order of a sorted set does not change if averages change afterwards.
+     * For the other preferences, this is {@link #getComparator()}, scoring on each comparison,
+     * since costs and squared distances are cheaper to compute than to keep.
+     * <p>Like the sorted collections that use it, this comparator is not thread safe.
+     * @return a comparator of {@link RideMatch}, with kept sort keys when the preference is BETTER
+     */
+    public Comparator<RideMatch> getKeyComparator() {
+        if (user.getPreferredMatch() != PreferredMatch.BETTER) {
+            return getComparator();
+        }
+
+        return Comparator.comparingDouble(match -> match.getKey(this));
     }
 }
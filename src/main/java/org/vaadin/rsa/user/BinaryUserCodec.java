@@ -0,0 +1,304 @@
+package org.vaadin.rsa.user;
+
+import org.vaadin.rsa.match.PreferredMatch;
+import org.vaadin.rsa.ride.RideRole;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A compact binary {@link UserCodec}, the default. Records have the fields of users in this order:
+ * <ul>
+ *   <li>nick and name, as strings</li>
+ *   <li>key, as its 16 bytes if it is a UUID, or as a string otherwise</li>
+ *   <li>preferred match, as its ordinal</li>
+ *   <li>number of reviews of each {@link UserStars} value, as driver and as passenger</li>
+ *   <li>number of cars, followed by their plate, make, model and color</li>
+ * </ul>
+ * Numbers are varints, taking a single byte if under 128, and strings are UTF-8 bytes prefixed by their length.
+ * Common car makes and colors are interned: they are encoded as their index in a table,
+ * and decoded as the same instance. Tables may be extended, but their existing entries must not change.
+ */
+class BinaryUserCodec implements UserCodec {
+
+    static final int ID = 0;
+
+    private static final String[] MAKES = {
+            "Opel", "Ford", "VW", "Volkswagen", "Fiat", "Renault", "Peugeot", "Citroën", "Seat", "Skoda",
+            "Toyota", "Nissan", "Honda", "Mazda", "Hyundai", "Kia", "BMW", "Mercedes-Benz", "Audi", "Volvo",
+            "Dacia", "Tesla" };
+    private static final String[] COLORS = {
+            "Red", "Green", "Blue", "Black", "White", "Silver", "Grey", "Yellow" };
+
+    private static final Map<String, Integer> MAKE_INDEX = index(MAKES);
+    private static final Map<String, Integer> COLOR_INDEX = index(COLORS);
+
+    private static final int NULL = 0;
+    private static final int LITERAL = 1;
+    private static final int UUID_BYTES = 2;
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public void encode(User user, DataOutput output) throws IOException {
+        List<Car> cars = user.getCars();
+
+        writeString(output, user.getNick());
+        writeString(output, user.getName());
+        writeKey(output, user.getKey());
+        output.writeByte(user.getPreferredMatch().ordinal());
+
+        for (RideRole role : RideRole.values()) {
+            for (UserStars stars : UserStars.values()) {
+                writeVarint(output, user.getStarsCount(stars, role));
+            }
+        }
+
+        writeVarint(output, cars.size());
+        for (Car car : cars) {
+            writeString(output, car.getPlate());
+            writeInterned(output, car.getMake(), MAKE_INDEX);
+            writeString(output, car.getModel());
+            writeInterned(output, car.getColor(), COLOR_INDEX);
+        }
+    }
+
+    @Override
+    public User decode(DataInput input) throws IOException {
+        String nick = readString(input);
+        String name = readString(input);
+        String key = readKey(input);
+        PreferredMatch preferredMatch = PreferredMatch.values()[input.readByte()];
+        StarsTally driverStars = readTally(input);
+        StarsTally passengerStars = readTally(input);
+        int count = readCount(input);
+        List<Car> cars = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            cars.add(new Car(readString(input), readInterned(input, MAKES), readString(input),
+                    readInterned(input, COLORS)));
+        }
+
+        return new User(nick, name, key, preferredMatch, driverStars, passengerStars, cars);
+    }
+
+    /**
+     * Read the number of reviews of each stars value, in a role
+     * @param input to read from
+     * @return tally with those reviews
+     * @throws IOException on read error
+     */
+    private static StarsTally readTally(DataInput input) throws IOException {
+        long[] histogram = new long[UserStars.values().length];
+
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = readVarint(input);
+        }
+        return new StarsTally(histogram, User.isAuditStars());
+    }
+
+    /**
+     * Write a key as the 16 bytes of its UUID, as generated by {@link User#generateKey()},
+     * or as a string if it is not in the canonical form of a UUID
+     * @param output to write to
+     * @param key to write, or null
+     * @throws IOException on write error
+     */
+    private static void writeKey(DataOutput output, String key) throws IOException {
+        UUID uuid = toUUID(key);
+
+        if (uuid == null) {
+            output.writeByte(key == null ? NULL : LITERAL);
+            if (key != null) {
+                writeString(output, key);
+            }
+        } else {
+            output.writeByte(UUID_BYTES);
+            output.writeLong(uuid.getMostSignificantBits());
+            output.writeLong(uuid.getLeastSignificantBits());
+        }
+    }
+
+    /**
+     * Read a key written by {@link #writeKey(DataOutput, String)}
+     * @param input to read from
+     * @return key, or null
+     * @throws IOException on read error
+     */
+    private static String readKey(DataInput input) throws IOException {
+        return switch (input.readByte()) {
+            case NULL -> null;
+            case LITERAL -> readString(input);
+            case UUID_BYTES -> new UUID(input.readLong(), input.readLong()).toString();
+            default -> throw new IOException("Invalid key in user record");
+        };
+    }
+
+    /**
+     * UUID of a key, if the key is its canonical form
+     * @param key of user
+     * @return UUID, or null if the key is not a UUID in canonical form
+     */
+    private static UUID toUUID(String key) {
+        if (key == null) {
+            return null;
+        }
+
+        try {
+            UUID uuid = UUID.fromString(key);
+            return uuid.toString().equals(key) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write a string as 0 if null, its index plus 2 if it is in the table, or 1 followed by the string otherwise
+     * @param output to write to
+     * @param string to write, or null
+     * @param index of strings in table
+     * @throws IOException on write error
+     */
+    private static void writeInterned(DataOutput output, String string, Map<String, Integer> index)
+            throws IOException {
+        Integer position = string == null ? null : index.get(string);
+
+        if (position != null) {
+            writeVarint(output, position + 2);
+        } else if (string == null) {
+            writeVarint(output, NULL);
+        } else {
+            writeVarint(output, LITERAL);
+            writeString(output, string);
+        }
+    }
+
+    /**
+     * Read a string written by {@link #writeInterned(DataOutput, String, Map)}
+     * @param input to read from
+     * @param table of interned strings
+     * @return string, the instance in the table if interned, or null
+     * @throws IOException on read error
+     */
+    private static String readInterned(DataInput input, String[] table) throws IOException {
+        int code = (int) readVarint(input);
+
+        if (code == NULL) {
+            return null;
+        } else if (code == LITERAL) {
+            return readString(input);
+        } else if (code - 2 < table.length) {
+            return table[code - 2];
+        }
+        throw new IOException("Invalid interned string in user record");
+    }
+
+    /**
+     * Write a string as the number of its UTF-8 bytes plus 1, or 0 if null, followed by those bytes
+     * @param output to write to
+     * @param string to write, or null
+     * @throws IOException on write error
+     */
+    private static void writeString(DataOutput output, String string) throws IOException {
+        if (string == null) {
+            writeVarint(output, 0);
+        } else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+            writeVarint(output, bytes.length + 1L);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutput, String)}
+     * @param input to read from
+     * @return string, or null
+     * @throws IOException on read error
+     */
+    private static String readString(DataInput input) throws IOException {
+        int length = (int) readVarint(input) - 1;
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a non-negative number in groups of 7 bits, lowest first, with the high bit set in all bytes but the last
+     * @param output to write to
+     * @param value to write
+     * @throws IOException on write error
+     */
+    static void writeVarint(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    /**
+     * Read a number written by {@link #writeVarint(DataOutput, long)}
+     * @param input to read from
+     * @return value read
+     * @throws IOException on read error, or a number with too many bytes
+     */
+    static long readVarint(DataInput input) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte next = input.readByte();
+
+            value |= (long) (next & 0x7F) << shift;
+            if (next >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint in user record");
+    }
+
+    /**
+     * Read a number of items written by {@link #writeVarint(DataOutput, long)}, rejecting numbers that
+     * cannot be counts of items, as in corrupted records
+     * @param input to read from
+     * @return count read
+     * @throws IOException on read error, or a negative count or one larger than an int
+     */
+    static int readCount(DataInput input) throws IOException {
+        long count = readVarint(input);
+
+        if (count < 0 || count > Integer.MAX_VALUE) {
+            throw new IOException("Invalid count in user record: " + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * Index of the strings in a table
+     * @param table of strings
+     * @return map from each string to its index
+     */
+    private static Map<String, Integer> index(String[] table) {
+        Map<String, Integer> index = new HashMap<>();
+
+        for (int i = 0; i < table.length; i++) {
+            index.put(table[i], i);
+        }
+        return index;
+    }
+}
@@ -7,6 +7,8 @@ import java.io.Serializable;
  */
 public class Car implements Serializable {
 
+    private static final long serialVersionUID = 1347484674245880242L;
+
     private String plate;
     private String make;
     private String model;
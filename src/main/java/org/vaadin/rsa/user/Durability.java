@@ -0,0 +1,12 @@
+package org.vaadin.rsa.user;
+
+/**
+ * Durability of the changes to users written to their journal, set with {@link Users#setDurability(Durability)}.
+ * Changes are written in batches by a background thread, and each batch is flushed to the file system;
+ * durability sets when they are also forced to the storage device, to survive an operating system crash.
+ */
+public enum Durability {
+    NONE,          // Never force changes; they survive only a crash of the application.
+    BATCHED,       // Force each batch of changes once (this is the default).
+    PER_OPERATION; // Force each change after it is written.
+}
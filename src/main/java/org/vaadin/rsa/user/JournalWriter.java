@@ -0,0 +1,185 @@
+package org.vaadin.rsa.user;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Writes changes to a {@link UsersJournal} asynchronously, in group commits, used by {@link Users}.
+ * Changes are queued by the threads that flush them and written by a background daemon thread,
+ * that takes all changes queued meanwhile (up to {@link #MAX_BATCH}) and writes them as a batch,
+ * with a single flush and, depending on the {@link Durability}, a single force to the storage device.
+ * Hence, threads flushing changes never wait for the file, and bursts of changes cost a few writes.
+ * <p>Each change has a future completed when it is durable, or completed exceptionally if it cannot be written.
+ * Changes are written in the order they are queued. After a write fails, the journal may end with a partial record,
+ * hence later changes are not written and their futures are completed exceptionally with the same failure.
+ */
+class JournalWriter implements Closeable {
+
+    /**
+     * Maximum number of changes written in a batch
+     */
+    static final int MAX_BATCH = 1024;
+
+    private static final Pending CLOSE = new Pending(null, new CompletableFuture<>());
+
+    private final UsersJournal journal;
+    private final Durability durability;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private int size;
+    private volatile IOException failure;
+
+    /**
+     * A change waiting to be written, or a marker to complete when previous changes are written if change is null
+     * @param change to write, or null
+     * @param future completed when written
+     */
+    private record Pending(UsersChange change, CompletableFuture<Void> future) {
+    }
+
+    /**
+     * Create a writer to given journal, starting its thread
+     * @param journal to write changes to
+     * @param durability of changes
+     */
+    JournalWriter(UsersJournal journal, Durability durability) {
+        this.journal = journal;
+        this.durability = durability;
+
+        thread = new Thread(this::run, "users-journal");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Number of changes submitted to this writer, written or not
+     * @return number of changes
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Failure writing to the journal, after which no more changes are written
+     * @return failure, or null if all changes were written
+     */
+    IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Queue a change to be written to the journal. {@link Users} submits changes while holding its lock,
+     * hence they are written in the order they were flushed.
+     * @param change to write
+     * @return future completed when the change is durable
+     */
+    CompletableFuture<Void> submit(UsersChange change) {
+        size++;
+        return enqueue(change);
+    }
+
+    /**
+     * A future completed when all changes submitted so far are durable
+     * @return future completed after previous changes
+     */
+    CompletableFuture<Void> sync() {
+        return enqueue(null);
+    }
+
+    /**
+     * Write all changes submitted so far, stop the thread and close the journal
+     * @throws IOException if the journal cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        queue.add(CLOSE);
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    /**
+     * Add a pending change to the queue
+     * @param change to write, or null for a marker
+     * @return future of pending change
+     */
+    private CompletableFuture<Void> enqueue(UsersChange change) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        queue.add(new Pending(change, future));
+        return future;
+    }
+
+    /**
+     * Take batches of pending changes from the queue and write them, until closed
+     */
+    private void run() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+        boolean closed = false;
+
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue; // only close stops this thread, hence no change is lost
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            closed = batch.remove(CLOSE);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write a batch of changes with a single flush, forcing them as required by durability,
+     * and complete their futures
+     * @param batch of pending changes
+     */
+    private void write(List<Pending> batch) {
+        List<CompletableFuture<Void>> written = new ArrayList<>(batch.size());
+
+        if (failure != null) {
+            for (Pending pending : batch) {
+                pending.future().completeExceptionally(failure);
+            }
+            return;
+        }
+
+        try {
+            for (Pending pending : batch) {
+                if (pending.change() != null) {
+                    journal.append(pending.change());
+
+                    if (durability == Durability.PER_OPERATION) {
+                        journal.flush(true);
+                        pending.future().complete(null);
+                        continue;
+                    }
+                }
+                written.add(pending.future());
+            }
+            journal.flush(durability == Durability.BATCHED);
+        } catch (IOException e) {
+            failure = e;
+
+            for (Pending pending : batch) {
+                pending.future().completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (CompletableFuture<Void> future : written) {
+            future.complete(null);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.vaadin.rsa.user;
+
+import org.vaadin.rsa.match.PreferredMatch;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Reader of users files written with Java serialization of {@link Users}, before snapshots and journals,
+ * used by {@link Users} to import them once.
+ * <p>Those files have a serialized {@code Users} with a map of {@code User} instances whose stars are lists of
+ * reviews, hence they cannot be deserialized as the current classes. Their class descriptors are replaced by
+ * those of private classes with the same serialized fields, and the users read are converted to current users,
+ * with the tallies of their reviews.
+ */
+class LegacyUsers {
+
+    private static final String USERS_CLASS = "org.vaadin.rsa.user.Users";
+    private static final String USER_CLASS = "org.vaadin.rsa.user.User";
+
+    private LegacyUsers() {
+    }
+
+    /**
+     * Checks if given file was written with Java serialization, rather than being a {@link UserStore}
+     * @param file of users
+     * @return true if the file starts with the magic number of Java serialization; false otherwise
+     * @throws IOException if the file cannot be read
+     */
+    static boolean isLegacy(File file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            return input.readShort() == ObjectStreamConstants.STREAM_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the users in a file written with Java serialization of {@link Users}
+     * @param file of users
+     * @return users read, not bound to any {@link Users}
+     * @throws IOException if the file cannot be read, or is not a serialization of users
+     */
+    static List<User> read(File file) throws IOException {
+        try (ObjectInputStream input = new LegacyInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            List<User> users = new ArrayList<>();
+
+            if (!(input.readObject() instanceof SerializedUsers serialized)) {
+                throw new IOException("Not a serialization of users: " + file);
+            }
+
+            for (SerializedUser user : serialized.users.values()) {
+                users.add(user.toUser());
+            }
+            return users;
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid serialization of users: " + file, e);
+        }
+    }
+
+    /**
+     * Input of serialized objects that reads legacy users as instances of the private classes of this reader
+     */
+    private static class LegacyInputStream extends ObjectInputStream {
+
+        LegacyInputStream(InputStream input) throws IOException {
+            super(input);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass descriptor = super.readClassDescriptor();
+
+            return switch (descriptor.getName()) {
+                case USERS_CLASS -> ObjectStreamClass.lookup(SerializedUsers.class);
+                case USER_CLASS -> ObjectStreamClass.lookup(SerializedUser.class);
+                default -> descriptor;
+            };
+        }
+    }
+
+    /**
+     * Serialized fields of {@link Users}, a map of users by nick
+     */
+    private static class SerializedUsers implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private HashMap<String, SerializedUser> users;
+    }
+
+    /**
+     * Serialized fields of {@link User}, with the lists of reviews received in each role
+     */
+    private static class SerializedUser implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String key;
+        private String nick;
+        private String name;
+        private HashMap<String, Car> cars;
+        private List<UserStars> driverStars;
+        private List<UserStars> passengerStars;
+        private PreferredMatch preferredMatch;
+
+        /**
+         * Convert to a current user
+         * @return new user instance
+         */
+        User toUser() {
+            return new User(nick, name, key, preferredMatch, tally(driverStars), tally(passengerStars),
+                    new ArrayList<>(cars.values()));
+        }
+
+        /**
+         * Tally of a list of reviews, kept for audit if {@link User#isAuditStars()}
+         * @param reviews received by user
+         * @return tally of reviews
+         */
+        private static StarsTally tally(List<UserStars> reviews) {
+            StarsTally tally = new StarsTally(User.isAuditStars());
+
+            for (UserStars stars : reviews) {
+                tally.add(stars);
+            }
+            return tally;
+        }
+    }
+}
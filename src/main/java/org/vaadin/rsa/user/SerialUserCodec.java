@@ -0,0 +1,41 @@
+package org.vaadin.rsa.user;
+
+import java.io.*;
+
+/**
+ * A {@link UserCodec} with Java serialization: each user is serialized with its own {@link ObjectOutputStream},
+ * and the bytes are prefixed by their length. Robust to new fields, but records are large and slow to encode,
+ * since each one repeats the descriptions of the classes of the user.
+ */
+class SerialUserCodec implements UserCodec {
+
+    static final int ID = 1;
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public void encode(User user, DataOutput output) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream objectOutput = new ObjectOutputStream(bytes)) {
+            objectOutput.writeObject(user);
+        }
+        output.writeInt(bytes.size());
+        output.write(bytes.toByteArray());
+    }
+
+    @Override
+    public User decode(DataInput input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+
+        input.readFully(bytes);
+        try (ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (User) objectInput.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new InvalidObjectException("Not a serialized user: " + e.getMessage());
+        }
+    }
+}
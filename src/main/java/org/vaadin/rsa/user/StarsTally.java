@@ -0,0 +1,103 @@
+package org.vaadin.rsa.user;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Running tally of the stars received by a user in a role, used by {@link User}.
+ * Keeps a histogram of the {@link UserStars} values and the sum of their stars, hence the average is computed
+ * in constant time and the memory used does not grow with the number of reviews.
+ * <p>The sequence of reviews is also kept, for audit, only if requested when the tally is created.
+ * This class is not thread safe; {@link User} synchronizes its access.
+ */
+class StarsTally implements Serializable {
+
+    private static final long serialVersionUID = -5936481023876265890L;
+
+    private final long[] histogram = new long[UserStars.values().length];
+    private long count;
+    private long sum;
+    private final List<UserStars> reviews;
+
+    /**
+     * Create an empty tally
+     * @param audit true to keep the sequence of reviews; false otherwise
+     */
+    StarsTally(boolean audit) {
+        this.reviews = audit ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Create a tally with given number of reviews of each {@link UserStars} value, as stored by {@link UserStore}.
+     * The sequence of those reviews is unknown, hence only reviews added afterwards are kept for audit.
+     * @param histogram number of reviews indexed by ordinal of stars
+     * @param audit true to keep the sequence of reviews added afterwards; false otherwise
+     */
+    StarsTally(long[] histogram, boolean audit) {
+        this(audit);
+
+        for (UserStars stars : UserStars.values()) {
+            long reviews = histogram[stars.ordinal()];
+
+            this.histogram[stars.ordinal()] = reviews;
+            count += reviews;
+            sum += reviews * stars.getStars();
+        }
+    }
+
+    /**
+     * Add a review to this tally
+     * @param stars of review
+     */
+    void add(UserStars stars) {
+        histogram[stars.ordinal()]++;
+        count++;
+        sum += stars.getStars();
+
+        if (reviews != null) {
+            reviews.add(stars);
+        }
+    }
+
+    /**
+     * Average number of stars of the reviews in this tally
+     * @return average number of stars, or 0 if there are no reviews
+     */
+    float getAverage() {
+        return count == 0 ? 0 : (float) sum / count;
+    }
+
+    /**
+     * Number of reviews in this tally
+     * @return number of reviews
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Number of reviews with given stars in this tally
+     * @param stars of reviews
+     * @return number of reviews with given stars
+     */
+    long getCount(UserStars stars) {
+        return histogram[stars.ordinal()];
+    }
+
+    /**
+     * Number of reviews of each {@link UserStars} value in this tally
+     * @return copy of histogram indexed by ordinal of stars
+     */
+    long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    /**
+     * Sequence of reviews in this tally, if kept for audit
+     * @return copy of reviews in order they were added, or an empty list if they are not kept
+     */
+    List<UserStars> getReviews() {
+        return reviews == null ? new ArrayList<>() : new ArrayList<>(reviews);
+    }
+}
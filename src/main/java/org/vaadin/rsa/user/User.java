@@ -12,17 +12,27 @@ import java.util.UUID;
 /**
  * A user of the Ride Sharing App.
  * An instance of this class records the user's authentication and other relevant data.
+ * <p>Stars received in each role are kept in a {@link StarsTally}, hence averages are computed in constant time.
+ * The sequence of reviews is kept only if auditing stars is enabled with {@link #setAuditStars(boolean)}.
+ * <p>Changes to registered users are applied by {@link Users}, that records changed users in its journal.
  */
 public class User implements Serializable {
 
+    // Pinned to the value computed for the layout already in stores encoded by SerialUserCodec
+    private static final long serialVersionUID = 3221238599712141192L;
+
     private final String key;
     private final String nick;
     private String name;
     private final HashMap<String, Car> cars;
-    private final List<UserStars> driverStars;
-    private final List<UserStars> passengerStars;
+    private final StarsTally driverStars;
+    private final StarsTally passengerStars;
     private PreferredMatch preferredMatch = PreferredMatch.BETTER;
 
+    private transient Users users;
+
+    private static boolean auditStars = false;
+
     /**
      * Creates a User instance. This is the only constructor and is package private.
      * Hence, users can only be instanced in this package, using the method Users.register(String, String).
@@ -34,8 +44,49 @@ public class User implements Serializable {
         this.name = name;
         this.key = generateKey();
         this.cars = new HashMap<>();
-        this.driverStars = new ArrayList<>();
-        this.passengerStars = new ArrayList<>();
+        this.driverStars = new StarsTally(auditStars);
+        this.passengerStars = new StarsTally(auditStars);
+    }
+
+    /**
+     * Creates a User instance with given data, as decoded by {@link UserStore}.
+     * @param nick of user
+     * @param name of user
+     * @param key of user
+     * @param preferredMatch for sorting matches
+     * @param driverStars tally of stars received as driver
+     * @param passengerStars tally of stars received as passenger
+     * @param cars bound to user
+     */
+    User(String nick, String name, String key, PreferredMatch preferredMatch,
+         StarsTally driverStars, StarsTally passengerStars, List<Car> cars) {
+        this.nick = nick;
+        this.name = name;
+        this.key = key;
+        this.cars = new HashMap<>();
+        this.driverStars = driverStars;
+        this.passengerStars = passengerStars;
+        this.preferredMatch = preferredMatch;
+
+        for (Car car : cars) {
+            this.cars.put(car.getPlate(), car);
+        }
+    }
+
+    /**
+     * Are reviews of users kept for audit, besides their tallies?
+     * @return true if reviews are kept; false otherwise
+     */
+    public static boolean isAuditStars() {
+        return auditStars;
+    }
+
+    /**
+     * Keep reviews of users created afterwards for audit, besides their tallies
+     * @param auditStars true to keep reviews; false otherwise
+     */
+    public static void setAuditStars(boolean auditStars) {
+        User.auditStars = auditStars;
     }
 
     /**
@@ -93,10 +144,35 @@ public class User implements Serializable {
      * @param preferredMatch to set for this user
      */
     public void setPreferredMatch(PreferredMatch preferredMatch) {
-        if (preferredMatch == null) {
-            this.preferredMatch = PreferredMatch.BETTER;
+        change(new UsersChange.SetPreferredMatch(nick,
+                preferredMatch == null ? PreferredMatch.BETTER : preferredMatch));
+    }
+
+    /**
+     * Apply a change of preference for sorting matches
+     * @param preferredMatch to set for this user
+     */
+    void putPreferredMatch(PreferredMatch preferredMatch) {
+        this.preferredMatch = preferredMatch;
+    }
+
+    /**
+     * Bind this user to the users where it is registered, that record its changes
+     * @param users where this user is registered
+     */
+    void setUsers(Users users) {
+        this.users = users;
+    }
+
+    /**
+     * Apply a change to this user, through the users where it is registered if any, hence it is recorded
+     * @param change to apply
+     */
+    private void change(UsersChange.UserChange change) {
+        if (users == null) {
+            change.applyTo(this);
         } else {
-            this.preferredMatch = preferredMatch;
+            users.update(change);
         }
     }
 
@@ -125,6 +201,14 @@ public class User implements Serializable {
      * @param car to add
      */
     public void addCar(Car car) {
+        change(new UsersChange.AddCar(nick, car));
+    }
+
+    /**
+     * Apply the binding of a car to this user
+     * @param car to add
+     */
+    void putCar(Car car) {
         cars.put(car.getPlate(), car);
     }
 
@@ -133,6 +217,14 @@ public class User implements Serializable {
      * @param plate of car to remove from this user
      */
     void deleteCar(String plate) {
+        change(new UsersChange.DeleteCar(nick, plate));
+    }
+
+    /**
+     * Apply the removal of the binding between user and car
+     * @param plate of car to remove from this user
+     */
+    void removeCar(String plate) {
         cars.remove(plate);
     }
 
@@ -150,30 +242,77 @@ public class User implements Serializable {
      * @param role in which stars are added
      */
     public void addStars(UserStars moreStars, RideRole role) {
-        switch (role) {
-            case DRIVER -> driverStars.add(moreStars);
-            case PASSENGER -> passengerStars.add(moreStars);
-        }
+        change(new UsersChange.AddStars(nick, role, moreStars));
     }
 
     /**
-     * Returns the average number of stars in given role
+     * Apply the addition of stars to user in a role.
+     * Synchronized since rides of this user may be concluded concurrently.
+     * @param moreStars to add to this user
+     * @param role in which stars are added
+     */
+    synchronized void tallyStars(UserStars moreStars, RideRole role) {
+        getTally(role).add(moreStars);
+    }
+
+    /**
+     * Returns the average number of stars in given role, in constant time
      * @param role of user
      * @return average number of stars
      */
-    public float getAverage(RideRole role) {
-        List<UserStars> roleReviews = (role == RideRole.DRIVER) ? driverStars : passengerStars;
+    public synchronized float getAverage(RideRole role) {
+        return getTally(role).getAverage();
+    }
 
-        if (roleReviews.isEmpty()) {
-            return 0;
-        }
+    /**
+     * Number of reviews with given stars received in given role
+     * @param stars of reviews
+     * @param role of user
+     * @return number of reviews
+     */
+    public synchronized long getStarsCount(UserStars stars, RideRole role) {
+        return getTally(role).getCount(stars);
+    }
+
+    /**
+     * Number of reviews received in given role
+     * @param role of user
+     * @return number of reviews
+     */
+    public synchronized long getReviewsCount(RideRole role) {
+        return getTally(role).getCount();
+    }
+
+    /**
+     * Reviews received in given role, in the order they were added, if kept for audit
+     * @param role of user
+     * @return list of reviews, empty if not kept
+     */
+    public synchronized List<UserStars> getReviews(RideRole role) {
+        return getTally(role).getReviews();
+    }
 
-        int totalRoleStars = 0;
+    /**
+     * Current state of this user, detached from it, hence it can be recorded while the user changes
+     * @return state of user
+     */
+    synchronized UsersChange.Put getState() {
+        List<Car> copies = new ArrayList<>(cars.size());
 
-        for (UserStars review : roleReviews) {
-            totalRoleStars += review.getStars();
+        for (Car car : cars.values()) {
+            copies.add(new Car(car.getPlate(), car.getMake(), car.getModel(), car.getColor()));
         }
 
-        return (float) totalRoleStars / roleReviews.size();
+        return new UsersChange.Put(nick, name, key, preferredMatch,
+                driverStars.getHistogram(), passengerStars.getHistogram(), copies);
+    }
+
+    /**
+     * Tally of stars received in given role
+     * @param role of user
+     * @return tally of role
+     */
+    private StarsTally getTally(RideRole role) {
+        return role == RideRole.DRIVER ? driverStars : passengerStars;
     }
 }
@@ -0,0 +1,56 @@
+package org.vaadin.rsa.user;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encoding of users in the snapshots written by {@link UserStore}, selected with {@link Users#setCodec(UserCodec)}.
+ * Each user is encoded as a self-delimited record, hence records can be decoded sequentially, or from their offset.
+ * <p>The id of the codec is recorded in each snapshot, hence snapshots are always decoded with the codec
+ * that encoded them, even if another one was selected meanwhile. Ids must not be reused.
+ */
+interface UserCodec {
+
+    /**
+     * Codecs that can decode snapshots, one for each id
+     */
+    UserCodec[] CODECS = { new BinaryUserCodec(), new SerialUserCodec() };
+
+    /**
+     * Id of this codec, recorded in snapshots
+     * @return id
+     */
+    int getId();
+
+    /**
+     * Encode a user as a record
+     * @param user to encode
+     * @param output to write record to
+     * @throws IOException on write error
+     */
+    void encode(User user, DataOutput output) throws IOException;
+
+    /**
+     * Decode a record written by {@link #encode(User, DataOutput)}
+     * @param input to read record from
+     * @return new user instance
+     * @throws IOException on read error, or an invalid record
+     */
+    User decode(DataInput input) throws IOException;
+
+    /**
+     * Codec with given id
+     * @param id of codec
+     * @return codec
+     * @throws IOException if there is no codec with given id
+     */
+    static UserCodec of(int id) throws IOException {
+        for (UserCodec codec : CODECS) {
+            if (codec.getId() == id) {
+                return codec;
+            }
+        }
+        throw new IOException("Unknown user codec " + id);
+    }
+}
@@ -0,0 +1,246 @@
+package org.vaadin.rsa.user;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * A read-only store of users in a memory-mapped file, used by {@link Users} for its snapshots.
+ * Opening a store only maps the file, hence it is near-instant, and users are decoded when requested by nick,
+ * using an index in the file itself. Hence, users that are not requested are not kept in the heap.
+ * <p>The file has a fixed binary layout, with big-endian numbers:
+ * <ul>
+ *   <li><b>header</b>: magic int, generation long, count of users int, capacity of index int, offset of index long,
+ *   and id of the {@link UserCodec} of users int</li>
+ *   <li><b>users</b>: a record of each user, encoded by the codec</li>
+ *   <li><b>index</b>: a hash table with open addressing, with capacity entries as longs: the hash of the nick
+ *   in the high int and the offset of the user in the low int, 0 for empty entries</li>
+ * </ul>
+ * Lookups decode the users whose nick has the same hash, hence usually a single one.
+ * Stores are limited to 2GB.
+ * <p>The file stays mapped until the store is garbage collected, since Java cannot unmap it explicitly.
+ * On platforms where a mapped file cannot be replaced or deleted, such as Windows, a new snapshot
+ * cannot be renamed over the file of a store still in use; {@link Users} then keeps its previous snapshot
+ * and journal.
+ */
+class UserStore {
+
+    private static final int MAGIC = 0x52535532; // "RSU2"
+    private static final int HEADER_SIZE = 32;
+
+    private final MappedByteBuffer buffer;
+    private final long generation;
+    private final int size;
+    private final int capacity;
+    private final int indexOffset;
+    private final UserCodec codec;
+
+    /**
+     * Map a store in given file
+     * @param file of store
+     * @throws IOException if the file cannot be mapped, or is not a store
+     */
+    UserStore(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a user store: " + file);
+        }
+
+        generation = buffer.getLong(4);
+        size = buffer.getInt(12);
+        capacity = buffer.getInt(16);
+        indexOffset = (int) buffer.getLong(20);
+        codec = UserCodec.of(buffer.getInt(28));
+    }
+
+    /**
+     * Generation of the snapshot in this store
+     * @return generation
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Number of users in this store
+     * @return number of users
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Codec of the users in this store
+     * @return codec
+     */
+    UserCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Decode the user with given nick, looking up its offset in the index
+     * @param nick of user
+     * @return new user instance, or null if there is no user with given nick
+     * @throws UncheckedIOException if the user cannot be decoded
+     */
+    User read(String nick) {
+        int hash = hash(nick);
+        int mask = capacity - 1;
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = buffer.getLong(indexOffset + slot * Long.BYTES);
+
+            if (entry == 0) {
+                return null;
+            }
+
+            if ((int) (entry >>> 32) == hash) {
+                User user = decode(input((int) entry));
+
+                if (user.getNick().equals(nick)) {
+                    return user;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode each user in this store and pass it to given action, in the order they were stored
+     * @param action to apply to each user
+     * @throws UncheckedIOException if a user cannot be decoded
+     */
+    void forEach(Consumer<User> action) {
+        DataInput input = input(HEADER_SIZE);
+
+        for (int i = 0; i < size; i++) {
+            action.accept(decode(input));
+        }
+    }
+
+    /**
+     * Input reading the mapped buffer from given offset. Each input has its own position,
+     * hence concurrent reads do not interfere.
+     * @param offset of first byte to read
+     * @return input
+     */
+    private DataInput input(int offset) {
+        ByteBuffer records = buffer.duplicate().position(offset);
+
+        return new DataInputStream(new InputStream() {
+            @Override
+            public int read() {
+                return records.hasRemaining() ? records.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (!records.hasRemaining()) {
+                    return -1;
+                }
+
+                int count = Math.min(length, records.remaining());
+                records.get(bytes, offset, count);
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Decode a user with the codec of this store
+     * @param input of record
+     * @return new user instance
+     * @throws UncheckedIOException if the user cannot be decoded
+     */
+    private User decode(DataInput input) {
+        try {
+            return codec.decode(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Invalid user record", e);
+        }
+    }
+
+    /**
+     * Write a store with given users to given file, replacing its contents, and force it to the storage device
+     * @param file of store
+     * @param generation of snapshot
+     * @param users to store, with distinct nicks
+     * @param codec of users
+     * @throws IOException if the file cannot be written
+     */
+    static void write(File file, long generation, Collection<User> users, UserCodec codec) throws IOException {
+        int capacity = Integer.highestOneBit(Math.max(1, users.size()) * 2) * 2;
+        long[] index = new long[capacity];
+        int mask = capacity - 1;
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            output.write(new byte[HEADER_SIZE]);
+
+            for (User user : users) {
+                int hash = hash(user.getNick());
+                int slot = hash & mask;
+
+                while (index[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                index[slot] = (long) hash << 32 | output.size();
+
+                codec.encode(user, output);
+            }
+
+            int indexOffset = output.size();
+
+            for (long entry : index) {
+                output.writeLong(entry);
+            }
+            output.flush();
+
+            if (output.size() == Integer.MAX_VALUE) {
+                throw new IOException("User store exceeds 2GB: " + file);
+            }
+
+            writeHeader(file, generation, users.size(), capacity, indexOffset, codec);
+        }
+    }
+
+    /**
+     * Write the header of a store, after its users and index, and force the whole file to the storage device
+     * @param file of store
+     * @param generation of snapshot
+     * @param size number of users
+     * @param capacity of index
+     * @param indexOffset offset of index
+     * @param codec of users
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeHeader(File file, long generation, int size, int capacity, int indexOffset,
+                                    UserCodec codec) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        header.putInt(MAGIC).putLong(generation).putInt(size).putInt(capacity).putLong(indexOffset)
+                .putInt(codec.getId()).flip();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(header, 0);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Hash of a nick in the index, never 0 to distinguish entries from empty ones
+     * @param nick of user
+     * @return hash of nick
+     */
+    private static int hash(String nick) {
+        int hash = nick.hashCode();
+
+        hash ^= hash >>> 16;
+        return hash == 0 ? 1 : hash;
+    }
+}
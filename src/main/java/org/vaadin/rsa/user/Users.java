@@ -4,22 +4,76 @@ import org.springframework.stereotype.Service;
 import org.vaadin.rsa.RideSharingAppException;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A collection of players. Contains methods for registration, authentication and retrieving players and their names.
  * <p>Nicks acts as keys and cannot be changed.
  * They must be a single word (no white characters) of letters, digits and underscores, starting with a letter
- * <p>Users data is serialized for persistence.
+ * <p>Users data is persisted in a snapshot, a memory-mapped {@link UserStore} with all users encoded by
+ * a {@link UserCodec}, a compact binary one by default,
+ * followed by a {@link UsersJournal} with the users changed since then. Changed users are marked as dirty
+ * and, every {@link #getFlushPeriod()} milliseconds, the state of each dirty user is appended to the journal,
+ * hence a user changed many times in a period is recorded once. After {@link #getCompactionThreshold()} records,
+ * a new snapshot is written and the journal is restarted. Loading users maps the snapshot and replays the journal,
+ * that is restarted with the users replayed; hence, once loaded, users are always recorded in a journal.
+ * <p>Snapshots are written from a copy of the users taken under the lock of these users, but outside that lock,
+ * hence users can be changed meanwhile; those changes are recorded in the journal that follows the new snapshot.
+ * <p>Records are written to the journal asynchronously by a {@link JournalWriter}, in group commits with
+ * the configured {@link Durability}, hence threads changing users do not wait for the file.
+ * Use {@link #sync()} to flush dirty users and wait until they are durable. New users are submitted to the journal
+ * when registered, rather than when flushed, and registrations wait until they are durable with
+ * {@link Durability#PER_OPERATION}. Dirty users are flushed by {@link #close()} on shutdown.
+ * <p>Users in the snapshot are decoded when first requested, and then cached in the heap.
+ * Hence, loading is near-instant and users that are not requested are only kept in the mapped file.
+ * <p>A users file written with Java serialization, as users were saved before snapshots, is imported once
+ * by {@link LegacyUsers} and replaced by a snapshot.
  */
 @Service
 public class Users implements Serializable {
 
-    private static Users instance;
-    private final HashMap<String, User> users = new HashMap<>();
+    private static final System.Logger LOGGER = System.getLogger(Users.class.getName());
+
+    private static volatile Users instance;
+    private final Map<String, User> users = new ConcurrentHashMap<>();
     private static File file = new File("users.ser");
+    private static int compactionThreshold = 10_000;
+    private static Durability durability = Durability.BATCHED;
+    private static long flushPeriod = 1_000;
+    private static UserCodec codec = new BinaryUserCodec();
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "users-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Users::closeInstance, "users-shutdown"));
+    }
+
+    private long generation;
+    private final Set<String> dirty = new LinkedHashSet<>();
+    private transient Set<String> changed;
+    private transient UserStore store;
+    private transient volatile boolean storeCached;
+    private transient JournalWriter journal;
+    private transient ScheduledFuture<?> flusher;
 
     /**
      * Private constructor to enforce Singleton pattern
@@ -29,26 +83,27 @@ public class Users implements Serializable {
 
     /**
      * Returns the single instance of this class as proposed in the singleton design pattern.
-     * If a backup of this class is available then the users instance is recreated from that data
+     * If a backup of this class is available then the users instance is recreated from that data;
+     * otherwise, an empty snapshot is written. Either way, a journal is started to record changes.
      * @return instance of this class
-     * @throws RideSharingAppException if I/O error occurs reading serialization
+     * @throws RideSharingAppException if I/O error occurs reading or writing the snapshot or the journal
      */
     public static Users getInstance() throws RideSharingAppException {
         if (instance == null) {
-            if (file.exists()) {
-                try {
-                    Users loadedUsers = loadUsersFromFile();
-
-                    if (loadedUsers == null) {
-                        instance = new Users();
-                    } else {
-                        instance = loadedUsers;
-                    }
-                } catch (IOException | ClassNotFoundException e) {
-                    throw new RideSharingAppException("Error while loading users from file", e);
+            try {
+                Users loadedUsers = new Users();
+
+                if (!file.exists()) {
+                    loadedUsers.saveUsersToFile();
+                } else if (LegacyUsers.isLegacy(file)) {
+                    loadedUsers.importLegacyUsers();
+                } else {
+                    loadedUsers.loadUsersFromFile();
+                    loadedUsers.replay();
                 }
-            } else {
-                instance = new Users();
+                instance = loadedUsers;
+            } catch (IOException e) {
+                throw new RideSharingAppException("Error while loading users from file", e);
             }
         }
 
@@ -56,12 +111,65 @@ public class Users implements Serializable {
     }
 
     /**
-     * Resets singleton for unit testing purposes.
+     * Resets singleton for unit testing purposes. These users are closed, their files deleted,
+     * and they are started again as on a fresh install, as the singleton.
+     * The snapshot may remain mapped until garbage collected, hence it may not be deleted on some platforms.
      */
     public void reset() {
-        instance = null;
+        close();
         users.clear();
+        dirty.clear();
+        store = null;
+        storeCached = false;
+        generation = 0;
         file.delete();
+        getJournalFile().delete();
+        getPendingJournalFile().delete();
+
+        try {
+            saveUsersToFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        instance = this;
+    }
+
+    /**
+     * Flush dirty users, close the journal and release the singleton, if these users are it, keeping the files,
+     * as when the application stops. A snapshot being written is installed first, hence no snapshot or journal
+     * is written after closing. Called by a shutdown hook, since the threads writing users are daemons.
+     */
+    public synchronized void close() {
+        if (instance == this) {
+            instance = null;
+        }
+        awaitSnapshot();
+        flushQuietly();
+
+        if (flusher != null) {
+            flusher.cancel(false);
+            flusher = null;
+        }
+
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // changes were flushed when written
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Close the singleton, if there is one, when the virtual machine shuts down
+     */
+    private static void closeInstance() {
+        Users users = instance;
+
+        if (users != null) {
+            users.close();
+        }
     }
 
     /**
@@ -81,12 +189,116 @@ public class Users implements Serializable {
     }
 
     /**
-     * Get the user with given nick
+     * Name of file containing the journal of changes to users, next to the file containing their snapshot
+     * @return file containing journal
+     */
+    public static File getJournalFile() {
+        return new File(file.getPath() + ".log");
+    }
+
+    /**
+     * Name of file containing the users changed while a snapshot was written, until the journal following it
+     * is restarted with them
+     * @return file containing pending journal
+     */
+    private static File getPendingJournalFile() {
+        return new File(file.getPath() + ".log.tmp");
+    }
+
+    /**
+     * Number of records in the journal after which a new snapshot is written
+     * @return compaction threshold
+     */
+    public static int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Change number of records in the journal after which a new snapshot is written
+     * @param compactionThreshold number of records
+     */
+    public static void setCompactionThreshold(int compactionThreshold) {
+        Users.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Durability of changes written to the journal
+     * @return durability
+     */
+    public static Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Change durability of changes written to the journal, applied to journals started afterwards
+     * @param durability of changes
+     */
+    public static void setDurability(Durability durability) {
+        Users.durability = durability;
+    }
+
+    /**
+     * Period between flushes of dirty users to the journal
+     * @return period in milliseconds
+     */
+    public static long getFlushPeriod() {
+        return flushPeriod;
+    }
+
+    /**
+     * Change period between flushes of dirty users to the journal, applied to flushes scheduled afterwards
+     * @param flushPeriod in milliseconds
+     */
+    public static void setFlushPeriod(long flushPeriod) {
+        Users.flushPeriod = flushPeriod;
+    }
+
+    /**
+     * Codec of users in snapshots
+     * @return codec
+     */
+    static UserCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Change codec of users in snapshots written afterwards. Existing snapshots are decoded with their own codec.
+     * @param codec of users
+     */
+    static void setCodec(UserCodec codec) {
+        Users.codec = codec;
+    }
+
+    /**
+     * Get the user with given nick, decoding it from the snapshot if it is not cached yet
      * @param nick of player
-     * @return player instance
+     * @return player instance, or null if there is no user with given nick
      */
     public User getUser(String nick) {
-        return users.get(nick);
+        if (nick == null) {
+            return null;
+        }
+
+        User user = users.get(nick);
+
+        if (user == null && store != null) {
+            user = users.computeIfAbsent(nick, this::loadUser);
+        }
+        return user;
+    }
+
+    /**
+     * Decode the user with given nick from the snapshot, binding it to these users to record its changes
+     * @param nick of user
+     * @return user, or null if it is not in the snapshot
+     */
+    private User loadUser(String nick) {
+        User user = store.read(nick);
+
+        if (user != null) {
+            user.setUsers(this);
+        }
+        return user;
     }
 
     /**
@@ -100,27 +312,229 @@ public class Users implements Serializable {
     }
 
     /**
-     * Register a player with given nick and name. Changes are immediately serialized.
+     * Register a player with given nick and name. The new user is submitted to the journal immediately,
+     * rather than in the next flush, and with {@link Durability#PER_OPERATION} this method returns after it is
+     * durable, waiting outside the lock of these users. If there is no journal, or it failed, the user is marked
+     * as dirty instead, to be recorded in a snapshot by the next flush.
      * Nicks can have letters (upper and lowercase) and digits but not other characters.
      * @param nick of user
      * @param name of user
      * @return user with given nick and name, or null if nick already exists or is invalid.
-     * @throws RideSharingAppException on I/O error in serialization
+     * @throws RideSharingAppException if the user cannot be written to the journal
      */
     public User register(String nick, String name) throws RideSharingAppException {
-        if (!isValidNick(nick) || getUser(nick) != null) {
-            return null;
+        User user;
+        CompletableFuture<Void> written;
+
+        synchronized (this) {
+            if (!isValidNick(nick) || getUser(nick) != null) {
+                return null;
+            }
+
+            new UsersChange.Register(nick, name).applyTo(this);
+            user = getUser(nick);
+
+            if (journal == null || journal.getFailure() != null) {
+                markDirty(nick);
+                return user;
+            }
+
+            if (changed != null) {
+                changed.add(nick);
+            }
+            written = submit(user);
         }
 
-        User user = new User(nick, name);
-        users.put(nick, user);
+        if (durability == Durability.PER_OPERATION) {
+            try {
+                written.join();
+            } catch (CompletionException e) {
+                throw new RideSharingAppException("Error while saving users to file", e.getCause());
+            }
+        }
+        return user;
+    }
 
+    /**
+     * Add a user, binding it to these users to record its changes
+     * @param user to add
+     */
+    void addUser(User user) {
+        users.put(user.getNick(), user);
+        user.setUsers(this);
+    }
+
+    /**
+     * Apply a change to a registered user and mark it as dirty, to be recorded in the next flush
+     * @param change to apply
+     */
+    synchronized void update(UsersChange.UserChange change) {
+        change.applyTo(this);
+        markDirty(change.nick());
+    }
+
+    /**
+     * Mark the user with given nick as dirty, scheduling flushes if they are not scheduled yet.
+     * While a snapshot is written, the user is also marked as changed, to be recorded in the journal following it.
+     * @param nick of user
+     */
+    private void markDirty(String nick) {
+        dirty.add(nick);
+
+        if (changed != null) {
+            changed.add(nick);
+        }
+
+        if (flusher == null) {
+            flusher = FLUSHER.scheduleWithFixedDelay(this::flushQuietly, flushPeriod, flushPeriod,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Record dirty users. The state of each dirty user is submitted to the journal, if one is open and did not fail;
+     * otherwise, or if the journal reached the compaction threshold, a snapshot with all users is written,
+     * outside the lock of these users, and a new journal is started.
+     * <p>Users whose state cannot be written to the journal are marked as dirty again, and the failure is logged,
+     * hence the next flush writes a snapshot with them.
+     * @throws IOException if an I/O error occurs during writing
+     */
+    void flush() throws IOException {
+        synchronized (this) {
+            if (dirty.isEmpty()) {
+                return;
+            }
+
+            if (journal != null && journal.getFailure() == null) {
+                for (String nick : dirty) {
+                    User user = users.get(nick);
+
+                    if (user != null) {
+                        submit(user);
+                    }
+                }
+                dirty.clear();
+
+                if (journal.size() < compactionThreshold) {
+                    return;
+                }
+            }
+        }
+
+        saveUsersToFile();
+    }
+
+    /**
+     * Submit the state of a user to the journal, retrying it if it cannot be written. Must hold the lock.
+     * @param user to record
+     * @return future completed when the state is durable
+     */
+    private CompletableFuture<Void> submit(User user) {
+        String nick = user.getNick();
+        CompletableFuture<Void> written = journal.submit(user.getState());
+
+        written.whenCompleteAsync((result, failure) -> {
+            if (failure != null) {
+                retry(nick, failure);
+            }
+        }, FLUSHER);
+        return written;
+    }
+
+    /**
+     * Mark a user as dirty again, since its state could not be written to the journal, and log the failure.
+     * Users that were closed meanwhile are not flushed again, hence the failure is only logged.
+     * Runs on the flusher thread, rather than on the thread of the journal, that is joined under this lock on close.
+     * @param nick of user
+     * @param failure to write the state of user
+     */
+    private synchronized void retry(String nick, Throwable failure) {
+        LOGGER.log(System.Logger.Level.WARNING, "Cannot record user " + nick + " in the journal", failure);
+
+        if (instance == this) {
+            markDirty(nick);
+        }
+    }
+
+    /**
+     * Record dirty users, as scheduled. Users remain dirty if a snapshot cannot be written,
+     * or are marked as dirty again if their state cannot be written to the journal, hence the next flush retries.
+     * Failures are logged.
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            LOGGER.log(System.Logger.Level.WARNING, "Cannot save users to file, will retry", e);
+        }
+    }
+
+    /**
+     * Flush dirty users and return a future completed when all changes made so far are durable,
+     * as configured by {@link #getDurability()}, or completed exceptionally if they cannot be written
+     * @return future completed after previous changes
+     */
+    public CompletableFuture<Void> sync() {
+        try {
+            flush();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        synchronized (this) {
+            return journal == null ? CompletableFuture.completedFuture(null) : journal.sync();
+        }
+    }
+
+    /**
+     * Write a snapshot with all users and restart the journal, that is no longer needed to load them.
+     * Returns without writing another snapshot if one is being written.
+     * @throws RideSharingAppException on I/O error in serialization
+     */
+    public void compact() throws RideSharingAppException {
         try {
             saveUsersToFile();
         } catch (IOException e) {
             throw new RideSharingAppException("Error while saving users to file", e);
         }
-        return user;
+    }
+
+    /**
+     * Replay the changes in the journal that follows the snapshot, hence changed users are cached,
+     * and restart the journal with the states of those users, to record further changes.
+     * A pending journal left by a crash while the journal was restarted is replayed first; its changes are
+     * also in the journal, if they were written to it, and replaying a user's state twice has no effect.
+     * <p>As when a snapshot is installed, the states are written to the pending journal before the journal
+     * is truncated, unless the pending journal already has them, hence a crash never loses replayed changes.
+     * @throws IOException if an I/O error occurs during reading or writing
+     */
+    private void replay() throws IOException {
+        List<UsersChange> pending = UsersJournal.read(getPendingJournalFile(), generation);
+        Set<String> replayed = new LinkedHashSet<>();
+
+        for (List<UsersChange> changes : List.of(pending, UsersJournal.read(getJournalFile(), generation))) {
+            for (UsersChange change : changes) {
+                change.applyTo(this);
+                replayed.add(change.nick());
+            }
+        }
+
+        List<UsersChange.Put> states = new ArrayList<>(replayed.size());
+
+        for (String nick : replayed) {
+            User user = users.get(nick);
+
+            if (user != null) {
+                states.add(user.getState());
+            }
+        }
+
+        if (pending.isEmpty() && !states.isEmpty()) {
+            writeJournal(getPendingJournalFile(), generation, states).close();
+        }
+
+        journal = new JournalWriter(writeJournal(getJournalFile(), generation, states), durability);
+        getPendingJournalFile().delete();
     }
 
     /**
@@ -141,10 +555,20 @@ public class Users implements Serializable {
     }
 
     /**
-     * Returns list of all registered Users
+     * Returns list of all registered Users. On the first call after loading, the users in the snapshot that are
+     * not cached yet are decoded and cached; afterwards, all users are cached, also in later snapshots
+     * since they are written from the cache, hence users are no longer decoded.
      * @return list of users
      */
     public List<User> getUsers() {
+        if (store != null && !storeCached) {
+            store.forEach(user -> {
+                if (users.putIfAbsent(user.getNick(), user) == null) {
+                    user.setUsers(this);
+                }
+            });
+            storeCached = true;
+        }
         return new ArrayList<>(users.values());
     }
 
@@ -159,24 +583,223 @@ public class Users implements Serializable {
     }
 
     /**
-     * Reads users serialized data from file.
-     * @return Users
-     * @throws IOException if an I/O error occurs during reading
-     * @throws ClassNotFoundException if the class of a serialized object cannot be found
+     * Maps the snapshot in file, without decoding its users, and takes the generation of the journal following it.
+     * @throws IOException if an I/O error occurs during mapping, or the file is not a snapshot
+     */
+    private void loadUsersFromFile() throws IOException {
+        store = new UserStore(file);
+        storeCached = false;
+        dirty.clear();
+        generation = store.getGeneration();
+    }
+
+    /**
+     * Imports users from a file written with Java serialization, replacing it by a snapshot with those users.
+     * @throws IOException if an I/O error occurs during reading or writing, or the file is not a serialization of users
      */
-    private static Users loadUsersFromFile() throws IOException, ClassNotFoundException {
-        try (ObjectInputStream fileInputStream = new ObjectInputStream(new FileInputStream(file))) {
-            return (Users) fileInputStream.readObject();
+    private void importLegacyUsers() throws IOException {
+        for (User user : LegacyUsers.read(file)) {
+            addUser(user);
         }
+        saveUsersToFile();
+    }
+
+    /**
+     * A copy of all users, taken to write a snapshot with given generation
+     * @param generation of snapshot
+     * @param states of users cached when copied
+     * @param store with the other users, or null if there is none
+     */
+    private record Snapshot(long generation, List<UsersChange.Put> states, UserStore store) {
     }
 
     /**
-     * Saves users serialized data to file.
+     * Saves users data to file, as a snapshot with a new generation, and starts a journal following it.
+     * The state of cached users is copied under the lock of these users, and the snapshot is written outside it
+     * (unless the caller holds it), with the other users copied from the previous snapshot.
+     * Users changed meanwhile are recorded in the new journal. Returns without writing a snapshot
+     * if one is being written.
+     * <p>The snapshot is written to a temporary file, forced to the storage device, and then renamed,
+     * hence a crash keeps the previous snapshot and its journal. The directory is forced before the journal
+     * is restarted, with users changed meanwhile also written to a pending journal before the rename,
+     * hence a crash never keeps the new snapshot without the changes made after its copy.
      * @throws IOException if an I/O error occurs during writing
      */
     private void saveUsersToFile() throws IOException {
-        try (ObjectOutputStream fileOutputStream = new ObjectOutputStream(new FileOutputStream(file))) {
-            fileOutputStream.writeObject(this);
+        Snapshot snapshot;
+
+        synchronized (this) {
+            if (changed != null) {
+                return;
+            }
+            snapshot = copyUsers();
+            changed = new HashSet<>();
+        }
+
+        try {
+            File temporary = writeSnapshot(snapshot);
+
+            synchronized (this) {
+                installSnapshot(snapshot, temporary);
+            }
+        } finally {
+            synchronized (this) {
+                changed = null;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until a snapshot being written by another thread is installed, or failed. Must hold the lock.
+     */
+    private void awaitSnapshot() {
+        boolean interrupted = false;
+
+        while (changed != null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copy the state of cached users, to write a snapshot with the next generation. Must hold the lock.
+     * @return copy of users
+     */
+    private Snapshot copyUsers() {
+        List<UsersChange.Put> states = new ArrayList<>(users.size());
+
+        for (User user : users.values()) {
+            states.add(user.getState());
+        }
+        return new Snapshot(generation + 1, states, store);
+    }
+
+    /**
+     * Write a copy of users to a temporary file, with the users copied and the other users in its store
+     * @param snapshot copy of users
+     * @return temporary file with the snapshot
+     * @throws IOException if an I/O error occurs during writing
+     */
+    private static File writeSnapshot(Snapshot snapshot) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        List<User> written = new ArrayList<>(snapshot.states().size());
+        Set<String> copied = new HashSet<>();
+
+        for (UsersChange.Put state : snapshot.states()) {
+            written.add(state.toUser());
+            copied.add(state.nick());
+        }
+
+        if (snapshot.store() != null) {
+            snapshot.store().forEach(user -> {
+                if (!copied.contains(user.getNick())) {
+                    written.add(user);
+                }
+            });
+        }
+
+        UserStore.write(temporary, snapshot.generation(), written, codec);
+        return temporary;
+    }
+
+    /**
+     * Replace the snapshot by the one written to a temporary file, and restart the journal with the users changed
+     * since they were copied, hence no longer dirty. Must hold the lock.
+     * <p>The previous journal is closed only after the snapshot is renamed. If the rename fails, as on platforms
+     * where the mapped file of the previous snapshot cannot be replaced (see {@link UserStore}), the previous
+     * snapshot and journal are kept and changes are still recorded in that journal; the failure is thrown,
+     * and compaction is retried on later flushes.
+     * @param snapshot copy of users written
+     * @param temporary file with the snapshot
+     * @throws IOException if an I/O error occurs during writing
+     */
+    private void installSnapshot(Snapshot snapshot, File temporary) throws IOException {
+        List<UsersChange.Put> states = new ArrayList<>(changed.size());
+
+        for (String nick : changed) {
+            User user = users.get(nick);
+
+            if (user != null) {
+                states.add(user.getState());
+            }
+        }
+
+        if (!states.isEmpty()) {
+            writeJournal(getPendingJournalFile(), snapshot.generation(), states).close();
+        }
+
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the previous snapshot and its journal, still open, keep all changes
+            temporary.delete();
+            getPendingJournalFile().delete();
+            throw e;
+        }
+        syncDirectory(file);
+
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // changes in the journal are in the snapshot, or in states, if it failed
+            }
+            journal = null;
+        }
+
+        store = new UserStore(file);
+        generation = snapshot.generation();
+        dirty.clear();
+
+        journal = new JournalWriter(writeJournal(getJournalFile(), generation, states), durability);
+        getPendingJournalFile().delete();
+    }
+
+    /**
+     * Create a journal following the snapshot with given generation, with given states of users
+     * forced to the storage device
+     * @param journalFile of journal
+     * @param generation of snapshot
+     * @param states of users
+     * @return journal, open to append further changes
+     * @throws IOException if an I/O error occurs during writing
+     */
+    private static UsersJournal writeJournal(File journalFile, long generation, List<UsersChange.Put> states)
+            throws IOException {
+        UsersJournal journal = new UsersJournal(journalFile, generation);
+
+        for (UsersChange.Put state : states) {
+            journal.append(state);
+        }
+        journal.flush(true);
+        return journal;
+    }
+
+    /**
+     * Force the directory of given file to the storage device, hence a file renamed in it survives a crash
+     * @param file in directory
+     * @throws IOException if the directory cannot be forced
+     */
+    private static void syncDirectory(File file) throws IOException {
+        FileChannel channel;
+
+        try {
+            channel = FileChannel.open(file.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return; // directories cannot be opened on some platforms, such as Windows
+        }
+
+        try (channel) {
+            channel.force(true);
         }
     }
 
@@ -186,7 +809,7 @@ public class Users implements Serializable {
      * @param plate of user's car
      */
     public void deleteUserCar(String nick, String plate) {
-        User user = users.get(nick);
+        User user = getUser(nick);
         if (user != null) {
             user.deleteCar(plate);
         }
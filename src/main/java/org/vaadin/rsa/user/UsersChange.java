@@ -0,0 +1,146 @@
+package org.vaadin.rsa.user;
+
+import org.vaadin.rsa.match.PreferredMatch;
+import org.vaadin.rsa.ride.RideRole;
+
+import java.util.List;
+
+/**
+ * A change to the registered users, applied by {@link Users} and replayed from its journal when users are loaded.
+ * Registrations and the state of a user change {@link Users}; the other changes change a single {@link User},
+ * identified by nick. Users record changed users in the journal with their state, rather than each change.
+ */
+sealed interface UsersChange {
+
+    /**
+     * Nick of the user changed
+     * @return nick of user
+     */
+    String nick();
+
+    /**
+     * Apply this change to given users
+     * @param users to change
+     */
+    void applyTo(Users users);
+
+    /**
+     * Registration of a user with given nick and name
+     * @param nick of user
+     * @param name of user
+     */
+    record Register(String nick, String name) implements UsersChange {
+
+        @Override
+        public void applyTo(Users users) {
+            users.addUser(new User(nick, name));
+        }
+    }
+
+    /**
+     * State of a user, recorded after it changed, that replaces the user with the same nick, if any
+     * @param nick of user
+     * @param name of user
+     * @param key of user
+     * @param preferredMatch of user
+     * @param driverStars number of reviews as driver indexed by ordinal of stars
+     * @param passengerStars number of reviews as passenger indexed by ordinal of stars
+     * @param cars of user
+     */
+    record Put(String nick, String name, String key, PreferredMatch preferredMatch,
+               long[] driverStars, long[] passengerStars, List<Car> cars) implements UsersChange {
+
+        @Override
+        public void applyTo(Users users) {
+            users.addUser(toUser());
+        }
+
+        /**
+         * Create a user with this state, not bound to any users
+         * @return new user instance
+         */
+        User toUser() {
+            return new User(nick, name, key, preferredMatch,
+                    new StarsTally(driverStars, User.isAuditStars()),
+                    new StarsTally(passengerStars, User.isAuditStars()), cars);
+        }
+    }
+
+    /**
+     * A change to a single user
+     */
+    sealed interface UserChange extends UsersChange {
+
+        /**
+         * Apply this change to the user with this nick, if registered
+         * @param users to change
+         */
+        @Override
+        default void applyTo(Users users) {
+            User user = users.getUser(nick());
+
+            if (user != null) {
+                applyTo(user);
+            }
+        }
+
+        /**
+         * Apply this change to given user
+         * @param user to change
+         */
+        void applyTo(User user);
+    }
+
+    /**
+     * Binding of a car to a user
+     * @param nick of user
+     * @param car to add
+     */
+    record AddCar(String nick, Car car) implements UserChange {
+
+        @Override
+        public void applyTo(User user) {
+            user.putCar(car);
+        }
+    }
+
+    /**
+     * Removal of the binding of a car to a user
+     * @param nick of user
+     * @param plate of car
+     */
+    record DeleteCar(String nick, String plate) implements UserChange {
+
+        @Override
+        public void applyTo(User user) {
+            user.removeCar(plate);
+        }
+    }
+
+    /**
+     * Stars received by a user in a role
+     * @param nick of user
+     * @param role in which stars are added
+     * @param stars added
+     */
+    record AddStars(String nick, RideRole role, UserStars stars) implements UserChange {
+
+        @Override
+        public void applyTo(User user) {
+            user.tallyStars(stars, role);
+        }
+    }
+
+    /**
+     * Change of the preference of a user for sorting matches
+     * @param nick of user
+     * @param preferredMatch of user
+     */
+    record SetPreferredMatch(String nick, PreferredMatch preferredMatch) implements UserChange {
+
+        @Override
+        public void applyTo(User user) {
+            user.putPreferredMatch(preferredMatch);
+        }
+    }
+}
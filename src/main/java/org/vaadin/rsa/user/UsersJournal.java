@@ -0,0 +1,321 @@
+package org.vaadin.rsa.user;
+
+import org.vaadin.rsa.match.PreferredMatch;
+import org.vaadin.rsa.ride.RideRole;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of changes to {@link Users}, kept in a file next to their snapshot.
+ * Each change is appended as a compact binary record, hence a change costs a single small write
+ * instead of serializing all users.
+ * <p>The journal starts with a header with the generation of the snapshot it follows.
+ * Changes are replayed only on the snapshot with that generation, hence a journal
+ * left behind by a snapshot that was replaced, or deleted, is ignored.
+ * <p>Each record is framed with its length and a CRC-32 checksum of its bytes. A record truncated by a crash
+ * while being written, or a tail of the file that is not a valid record (e.g. zeros left by a file system
+ * that extended the file before writing it), ends the replay.
+ * <p>Appended records are buffered until flushed, hence a batch of records can be written with a single flush.
+ */
+class UsersJournal implements Closeable {
+
+    private static final int MAGIC = 0x52534A32; // "RSJ2"
+    private static final int HEADER_LENGTH = Integer.BYTES + Long.BYTES;
+    private static final int FRAME_LENGTH = Integer.BYTES + Integer.BYTES;
+
+    private static final byte REGISTER = 1;
+    private static final byte ADD_CAR = 2;
+    private static final byte DELETE_CAR = 3;
+    private static final byte ADD_STARS = 4;
+    private static final byte SET_PREFERRED_MATCH = 5;
+    private static final byte PUT = 6;
+
+    private final FileOutputStream file;
+    private final DataOutputStream output;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOutput = new DataOutputStream(record);
+    private int size;
+
+    /**
+     * Create an empty journal in given file, following the snapshot with given generation.
+     * An existing file is truncated.
+     * @param file of journal
+     * @param generation of snapshot
+     * @throws IOException if the journal cannot be written
+     */
+    UsersJournal(File file, long generation) throws IOException {
+        this.file = new FileOutputStream(file);
+        output = new DataOutputStream(new BufferedOutputStream(this.file));
+        output.writeInt(MAGIC);
+        output.writeLong(generation);
+        output.flush();
+    }
+
+    /**
+     * Number of changes appended to this journal
+     * @return number of changes
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Append a change to this journal as a framed record, buffered until flushed
+     * @param change to append
+     * @throws IOException if the change cannot be written
+     */
+    void append(UsersChange change) throws IOException {
+        record.reset();
+        write(recordOutput, change);
+
+        byte[] bytes = record.toByteArray();
+        output.writeInt(bytes.length);
+        output.writeInt(checksum(bytes));
+        output.write(bytes);
+        size++;
+    }
+
+    /**
+     * Flush appended changes to the file, and optionally force them to the storage device
+     * @param force true to force changes to the storage device; false otherwise
+     * @throws IOException if the changes cannot be written
+     */
+    void flush(boolean force) throws IOException {
+        output.flush();
+
+        if (force) {
+            file.getChannel().force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+
+    /**
+     * Read the changes in given journal file, if it follows the snapshot with given generation.
+     * Records are read up to the end of the file or to the first frame that is not a valid record.
+     * @param file of journal
+     * @param generation of snapshot
+     * @return list of changes, empty if there is no journal or it follows another snapshot
+     * @throws IOException if the journal cannot be read, or a record with a valid checksum cannot be decoded
+     */
+    static List<UsersChange> read(File file, long generation) throws IOException {
+        List<UsersChange> changes = new ArrayList<>();
+
+        if (!file.exists()) {
+            return changes;
+        }
+
+        long remaining = file.length() - HEADER_LENGTH;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readLong() != generation) {
+                return changes;
+            }
+
+            while (remaining >= FRAME_LENGTH) {
+                int length = input.readInt();
+                int checksum = input.readInt();
+
+                remaining -= FRAME_LENGTH;
+                if (length <= 0 || length > remaining) {
+                    break; // zeros or garbage left after the last record
+                }
+
+                byte[] bytes = new byte[length];
+                input.readFully(bytes);
+                remaining -= length;
+                if (checksum(bytes) != checksum) {
+                    break; // record partially written
+                }
+
+                changes.add(decode(bytes));
+            }
+            return changes;
+        } catch (EOFException e) {
+            // header truncated while being written
+            return changes;
+        }
+    }
+
+    /**
+     * Checksum of the bytes of a record
+     * @param bytes of record
+     * @return CRC-32 of bytes
+     */
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Decode the bytes of a record with a valid checksum
+     * @param bytes of record
+     * @return change decoded
+     * @throws IOException if the record is not a valid change
+     */
+    private static UsersChange decode(byte[] bytes) throws IOException {
+        try {
+            return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (EOFException | IndexOutOfBoundsException e) {
+            throw new IOException("Invalid journal record", e);
+        }
+    }
+
+    /**
+     * Write a change as a record with a tag and its fields
+     * @param output to write to
+     * @param change to write
+     * @throws IOException on write error
+     */
+    private static void write(DataOutput output, UsersChange change) throws IOException {
+        if (change instanceof UsersChange.Register register) {
+            output.writeByte(REGISTER);
+            output.writeUTF(register.nick());
+            writeString(output, register.name());
+        } else if (change instanceof UsersChange.AddCar addCar) {
+            Car car = addCar.car();
+
+            output.writeByte(ADD_CAR);
+            output.writeUTF(addCar.nick());
+            writeString(output, car.getPlate());
+            writeString(output, car.getMake());
+            writeString(output, car.getModel());
+            writeString(output, car.getColor());
+        } else if (change instanceof UsersChange.DeleteCar deleteCar) {
+            output.writeByte(DELETE_CAR);
+            output.writeUTF(deleteCar.nick());
+            writeString(output, deleteCar.plate());
+        } else if (change instanceof UsersChange.AddStars addStars) {
+            output.writeByte(ADD_STARS);
+            output.writeUTF(addStars.nick());
+            output.writeByte(addStars.role().ordinal());
+            output.writeByte(addStars.stars().ordinal());
+        } else if (change instanceof UsersChange.SetPreferredMatch setPreferredMatch) {
+            output.writeByte(SET_PREFERRED_MATCH);
+            output.writeUTF(setPreferredMatch.nick());
+            output.writeByte(setPreferredMatch.preferredMatch().ordinal());
+        } else if (change instanceof UsersChange.Put put) {
+            output.writeByte(PUT);
+            output.writeUTF(put.nick());
+            writeString(output, put.name());
+            writeString(output, put.key());
+            output.writeByte(put.preferredMatch().ordinal());
+            writeHistogram(output, put.driverStars());
+            writeHistogram(output, put.passengerStars());
+            BinaryUserCodec.writeVarint(output, put.cars().size());
+
+            for (Car car : put.cars()) {
+                writeString(output, car.getPlate());
+                writeString(output, car.getMake());
+                writeString(output, car.getModel());
+                writeString(output, car.getColor());
+            }
+        }
+    }
+
+    /**
+     * Read a record written by {@link #write(DataOutput, UsersChange)}
+     * @param input to read from
+     * @return change read
+     * @throws IOException on read error, or an unknown tag
+     */
+    private static UsersChange read(DataInput input) throws IOException {
+        byte tag = input.readByte();
+        String nick = input.readUTF();
+
+        return switch (tag) {
+            case REGISTER -> new UsersChange.Register(nick, readString(input));
+            case ADD_CAR -> new UsersChange.AddCar(nick,
+                    new Car(readString(input), readString(input), readString(input), readString(input)));
+            case DELETE_CAR -> new UsersChange.DeleteCar(nick, readString(input));
+            case ADD_STARS -> new UsersChange.AddStars(nick,
+                    RideRole.values()[input.readByte()], UserStars.values()[input.readByte()]);
+            case SET_PREFERRED_MATCH -> new UsersChange.SetPreferredMatch(nick,
+                    PreferredMatch.values()[input.readByte()]);
+            case PUT -> readPut(nick, input);
+            default -> throw new IOException("Unknown journal record " + tag);
+        };
+    }
+
+    /**
+     * Read the fields of a state record written by {@link #write(DataOutput, UsersChange)}, after its nick
+     * @param nick of user
+     * @param input to read from
+     * @return state of user
+     * @throws IOException on read error
+     */
+    private static UsersChange.Put readPut(String nick, DataInput input) throws IOException {
+        String name = readString(input);
+        String key = readString(input);
+        PreferredMatch preferredMatch = PreferredMatch.values()[input.readByte()];
+        long[] driverStars = readHistogram(input);
+        long[] passengerStars = readHistogram(input);
+        int count = BinaryUserCodec.readCount(input);
+        List<Car> cars = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            cars.add(new Car(readString(input), readString(input), readString(input), readString(input)));
+        }
+
+        return new UsersChange.Put(nick, name, key, preferredMatch, driverStars, passengerStars, cars);
+    }
+
+    /**
+     * Write the number of reviews of each stars value
+     * @param output to write to
+     * @param histogram indexed by ordinal of stars
+     * @throws IOException on write error
+     */
+    private static void writeHistogram(DataOutput output, long[] histogram) throws IOException {
+        for (long reviews : histogram) {
+            output.writeLong(reviews);
+        }
+    }
+
+    /**
+     * Read a histogram written by {@link #writeHistogram(DataOutput, long[])}
+     * @param input to read from
+     * @return number of reviews indexed by ordinal of stars
+     * @throws IOException on read error
+     */
+    private static long[] readHistogram(DataInput input) throws IOException {
+        long[] histogram = new long[UserStars.values().length];
+
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = input.readLong();
+        }
+        return histogram;
+    }
+
+    /**
+     * Write a string that may be null
+     * @param output to write to
+     * @param string to write, or null
+     * @throws IOException on write error
+     */
+    private static void writeString(DataOutput output, String string) throws IOException {
+        output.writeBoolean(string != null);
+
+        if (string != null) {
+            output.writeUTF(string);
+        }
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutput, String)}
+     * @param input to read from
+     * @return string read, or null
+     * @throws IOException on read error
+     */
+    private static String readString(DataInput input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
@@ -23,6 +23,7 @@ import com.vaadin.flow.router.Route;
 import org.vaadin.lineawesome.LineAwesomeIconUrl;
 import org.vaadin.rsa.Manager;
 import org.vaadin.rsa.RideSharingAppException;
+import org.vaadin.rsa.match.ExpiredMatchException;
 import org.vaadin.rsa.match.Location;
 import org.vaadin.rsa.match.RideMatch;
 import org.vaadin.rsa.ride.Ride;
@@ -365,8 +366,13 @@ public class RidesView extends Composite<VerticalLayout> {
         Ride driverRide = rideMatch.getRide(RideRole.DRIVER);
         Ride passengerRide = rideMatch.getRide(RideRole.PASSENGER);
 
-        manager.acceptMatch(driverRide.getId(), rideMatch.getId());
-        manager.acceptMatch(passengerRide.getId(), rideMatch.getId());
+        try {
+            manager.acceptMatch(driverRide.getId(), rideMatch.getId());
+            manager.acceptMatch(passengerRide.getId(), rideMatch.getId());
+        } catch (ExpiredMatchException | IllegalStateException e) {
+            showNotification(LUMO_ERROR, e.getMessage() + ". Please update the ride");
+            return;
+        }
 
         if (rideMatch.getRide(RideRole.DRIVER).isMatched()
          && rideMatch.getRide(RideRole.PASSENGER).isMatched()) {
@@ -388,7 +394,12 @@ public class RidesView extends Composite<VerticalLayout> {
             return;
         }
 
-        manager.concludeRide(rideId, stars);
+        try {
+            manager.concludeRide(rideId, stars);
+        } catch (RideSharingAppException e) {
+            showNotification(LUMO_ERROR, e.getMessage());
+            return;
+        }
         showNotification(LUMO_SUCCESS, "Successfully concluded rideId " + rideId + " with " + stars);
 
         rideMatchDataProvider.getItems().clear();
@@ -0,0 +1,76 @@
+package org.vaadin.rsa.match;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.vaadin.rsa.TestData;
+import org.vaadin.rsa.quad.PointQuadtree;
+import org.vaadin.rsa.ride.Ride;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test a DestinationIndex. Searches must return rides near both the current location and the destination,
+ * including those going to destinations in neighbour buckets.
+ */
+public class DestinationIndexTest extends TestData {
+
+	private static final double BUCKET_SIDE = 10 * RADIUS;
+
+	DestinationIndex index;
+	Location from;
+	Set<Ride> found;
+
+	@BeforeEach
+	public void setUp() {
+		index = new DestinationIndex(
+				() -> new PointQuadtree<>(TOP_LEFT_X, TOP_LEFT_Y, BOTTOM_RIGHT_X, BOTTOM_RIGHT_Y), BUCKET_SIDE);
+		from = new Location(X1, Y1);
+		found = new HashSet<>();
+	}
+
+	private Ride addRide(double toX, double toY) {
+		Ride ride = new Ride(null, from, new Location(toX, toY), null, COST);
+		index.insert(ride);
+		return ride;
+	}
+
+	/**
+	 * Only rides going near the destination are found, also in neighbour buckets
+	 */
+	@Test
+	public void testForEachNear() {
+		Location to = new Location(BUCKET_SIDE, BUCKET_SIDE);
+		Ride same = addRide(to.x(), to.y());
+		Ride neighbour = addRide(to.x() - RADIUS / 2.0, to.y() - RADIUS / 2.0);
+		addRide(to.x() + 2 * RADIUS, to.y());
+		addRide(2 * BUCKET_SIDE, 2 * BUCKET_SIDE);
+
+		index.forEachNear(from.x(), from.y(), RADIUS, to, RADIUS, found::add);
+
+		assertEquals(Set.of(same, neighbour), found);
+	}
+
+	/**
+	 * Rides are found by current location, after moved, and not after deleted
+	 */
+	@Test
+	public void testMoveAndDelete() {
+		Location to = new Location(X2, Y2);
+		Ride ride = addRide(to.x(), to.y());
+
+		index.move(ride, X3, Y3);
+		index.forEachNear(from.x(), from.y(), RADIUS, to, RADIUS, found::add);
+		assertTrue(found.isEmpty());
+
+		index.forEachNear(X3, Y3, RADIUS, to, RADIUS, found::add);
+		assertEquals(Set.of(ride), found);
+
+		found.clear();
+		index.delete(ride);
+		index.forEachNear(X3, Y3, RADIUS, to, RADIUS, found::add);
+		assertTrue(found.isEmpty());
+	}
+}
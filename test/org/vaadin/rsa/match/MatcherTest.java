@@ -5,14 +5,27 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.vaadin.rsa.RideSharingAppException;
 import org.vaadin.rsa.TestData;
 import org.vaadin.rsa.ride.RideRole;
 import org.vaadin.rsa.user.*;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.SortedSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.vaadin.rsa.user.UsersTest.USERS_FILE;
 
 /**
@@ -208,6 +221,304 @@ public class MatcherTest extends TestData {
 
 	}
 
+	/**
+	 * The best matches with a limit are the first ones of all matches, for each preference
+	 * @param preference of passenger
+	 * @throws RideSharingAppException on deserialization error.
+	 */
+	@ParameterizedTest
+	@EnumSource(PreferredMatch.class)
+	public void testUpdateRideBest(PreferredMatch preference) throws RideSharingAppException {
+		User driver    = getUser(0,0);
+		User passenger = getUser(1);
+		User other     = getUser(2,2);
+		Location near  = new Location(X1 + RADIUS / 2.0, Y1);
+
+		long driverRideId    = matcher.addRide(driver, near, to, PLATES[0],COSTS[2]);
+		long passengerRideId = matcher.addRide(passenger, from, to, null,COSTS[0]);
+		long otherRideId     = matcher.addRide(other, from, to, PLATES[2],COSTS[1]);
+
+		passenger.setPreferredMatch(preference);
+		driver.addStars(UserStars.FIVE_STARS, RideRole.DRIVER);
+		other.addStars(UserStars.FOUR_STARS, RideRole.DRIVER);
+
+		matcher.updateRide(driverRideId, near);
+		matcher.updateRide(otherRideId, from);
+
+		SortedSet<RideMatch> all  = matcher.updateRide(passengerRideId, from);
+		SortedSet<RideMatch> best = matcher.updateRide(passengerRideId, from, 1);
+
+		assertEquals(2, all.size());
+		assertEquals(1, best.size());
+		assertEquals(all.first().getName(RideRole.DRIVER), best.first().getName(RideRole.DRIVER));
+		assertEquals(preference == PreferredMatch.BETTER ? NAMES[0] : NAMES[2], best.first().getName(RideRole.DRIVER));
+		assertTrue(matcher.updateRide(passengerRideId, from, 0).isEmpty());
+	}
+
+	/**
+	 * Matches with equal keys are all kept, with and without a limit
+	 * @param preference of passenger
+	 * @throws RideSharingAppException on deserialization error.
+	 */
+	@ParameterizedTest
+	@EnumSource(PreferredMatch.class)
+	public void testUpdateRideTies(PreferredMatch preference) throws RideSharingAppException {
+		User passenger = getUser(2);
+		long driverRideId    = matcher.addRide(getUser(0,0), from, to, PLATES[0],COSTS[1]);
+		long otherRideId     = matcher.addRide(getUser(1,1), from, to, PLATES[1],COSTS[1]);
+		long passengerRideId = matcher.addRide(passenger, from, to, null,COSTS[0]);
+
+		passenger.setPreferredMatch(preference);
+		matcher.updateRide(driverRideId, from);
+		matcher.updateRide(otherRideId, from);
+
+		assertEquals(2, matcher.updateRide(passengerRideId, from).size());
+		assertEquals(2, matcher.updateRide(passengerRideId, from, 2).size());
+		assertEquals(1, matcher.updateRide(passengerRideId, from, 1).size());
+		assertEquals(2, matcher.updateRides(Map.of(passengerRideId, from)).get(passengerRideId).size());
+	}
+
+	/**
+	 * Proposed matches not accepted within the proposal timeout expire and cannot be accepted afterwards
+	 * @throws RideSharingAppException on deserialization error.
+	 */
+	@Test
+	public void testExpiredMatch() throws RideSharingAppException {
+		long defaultTimeout = Matcher.getProposalTimeout();
+
+		try {
+			Matcher.setProposalTimeout(0);
+			matcher = new Matcher();
+
+			long driverRideId = matcher.addRide(getUser(0), from, to, PLATES[0], COSTS[0]);
+			long passengerRideId = matcher.addRide(getUser(1), from, to, null, COSTS[0]);
+
+			RideMatch expired = matcher.updateRide(passengerRideId, from).first();
+			RideMatch proposed = matcher.updateRide(passengerRideId, from).first();
+
+			assertThrows(ExpiredMatchException.class, () -> matcher.acceptMatch(driverRideId, expired.getId()));
+
+			// accepted matches do not expire, hence the other ride can still accept it
+			matcher.acceptMatch(driverRideId, proposed.getId());
+			assertTrue(matcher.updateRide(passengerRideId, from).isEmpty());
+			matcher.acceptMatch(passengerRideId, proposed.getId());
+		} finally {
+			Matcher.setProposalTimeout(defaultTimeout);
+		}
+	}
+
+	/**
+	 * Accepting a match claims both rides, hence other matches of either ride can no longer be accepted,
+	 * and rides can only accept their own matches
+	 * @throws RideSharingAppException on deserialization error.
+	 */
+	@Test
+	public void testAcceptTaken() throws RideSharingAppException {
+		long driverRideId = matcher.addRide(getUser(0), from, to, PLATES[0], COSTS[0]);
+		long passengerRideId = matcher.addRide(getUser(1), from, to, null, COSTS[0]);
+		long otherRideId = matcher.addRide(getUser(2), from, to, null, COSTS[0]);
+
+		RideMatch match = matcher.updateRide(passengerRideId, from).first();
+		RideMatch other = matcher.updateRide(otherRideId, from).first();
+
+		assertThrows(IllegalArgumentException.class, () -> matcher.acceptMatch(otherRideId, match.getId()));
+
+		matcher.acceptMatch(passengerRideId, match.getId());
+		matcher.acceptMatch(driverRideId, match.getId());
+
+		assertThrows(IllegalStateException.class, () -> matcher.acceptMatch(otherRideId, other.getId()));
+		assertThrows(IllegalStateException.class, () -> matcher.acceptMatch(driverRideId, other.getId()));
+		assertSame(match, match.getRide(RideRole.DRIVER).getMatch());
+	}
+
+	/**
+	 * Unmatched rides not updated within the idle timeout are evicted, and no longer matched
+	 * @throws RideSharingAppException on deserialization error.
+	 */
+	@Test
+	public void testEvictIdleRides() throws RideSharingAppException {
+		long defaultTimeout = Matcher.getIdleTimeout();
+
+		try {
+			long driverRideId = matcher.addRide(getUser(0), from, to, PLATES[0], COSTS[0]);
+
+			assertEquals(0, matcher.evictRides());
+
+			Matcher.setIdleTimeout(0);
+			assertEquals(1, matcher.evictRides());
+			Matcher.setIdleTimeout(defaultTimeout);
+
+			long passengerRideId = matcher.addRide(getUser(1), from, to, null, COSTS[0]);
+
+			assertTrue(matcher.updateRide(driverRideId, from).isEmpty());
+			assertTrue(matcher.updateRide(passengerRideId, from).isEmpty());
+		} finally {
+			Matcher.setIdleTimeout(defaultTimeout);
+		}
+	}
+
+	/**
+	 * Concluded rides are evicted after the grace period, matched rides are kept until concluded
+	 * @throws RideSharingAppException on deserialization error.
+	 */
+	@Test
+	public void testEvictConcludedRides() throws RideSharingAppException {
+		long defaultTimeout = Matcher.getIdleTimeout();
+		long defaultGracePeriod = Matcher.getConcludedGracePeriod();
+
+		try {
+			Matcher.setIdleTimeout(0);
+			Matcher.setConcludedGracePeriod(0);
+
+			long driverRideId = matcher.addRide(getUser(0), from, to, PLATES[0], COSTS[0]);
+			long passengerRideId = matcher.addRide(getUser(1), from, to, null, COSTS[0]);
+			RideMatch match = matcher.updateRide(passengerRideId, from).first();
+
+			matcher.acceptMatch(driverRideId, match.getId());
+			matcher.acceptMatch(passengerRideId, match.getId());
+			assertEquals(0, matcher.evictRides());
+
+			matcher.concludeRide(driverRideId, UserStars.FIVE_STARS);
+			assertEquals(1, matcher.evictRides());
+
+			matcher.concludeRide(passengerRideId, UserStars.FIVE_STARS);
+			assertEquals(1, matcher.evictRides());
+		} finally {
+			Matcher.setIdleTimeout(defaultTimeout);
+			Matcher.setConcludedGracePeriod(defaultGracePeriod);
+		}
+	}
+
+	/**
+	 * Matched rides that are never concluded are evicted after the matched timeout, and concluding them
+	 * afterwards fails instead of rating the other user
+	 * @throws RideSharingAppException on deserialization error.
+	 */
+	@Test
+	public void testEvictAbandonedRides() throws RideSharingAppException {
+		long defaultTimeout = Matcher.getMatchedTimeout();
+
+		try {
+			User passenger = getUser(1);
+			long driverRideId = matcher.addRide(getUser(0), from, to, PLATES[0], COSTS[0]);
+			long passengerRideId = matcher.addRide(passenger, from, to, null, COSTS[0]);
+			RideMatch match = matcher.updateRide(passengerRideId, from).first();
+
+			matcher.acceptMatch(driverRideId, match.getId());
+			matcher.acceptMatch(passengerRideId, match.getId());
+			assertEquals(0, matcher.evictRides());
+
+			Matcher.setMatchedTimeout(0);
+			assertEquals(2, matcher.evictRides());
+
+			assertThrows(RideSharingAppException.class,
+					() -> matcher.concludeRide(driverRideId, UserStars.FIVE_STARS));
+			assertEquals(0, passenger.getStarsCount(UserStars.FIVE_STARS, RideRole.PASSENGER));
+		} finally {
+			Matcher.setMatchedTimeout(defaultTimeout);
+		}
+	}
+
+	/**
+	 * Rides of each role are indexed with the capacity of their role, and matched as with the default capacity
+	 * @throws RideSharingAppException on deserialization error.
+	 */
+	@Test
+	public void testCapacityByRole() throws RideSharingAppException {
+		int defaultCapacity = Matcher.getCapacity(RideRole.PASSENGER);
+
+		try {
+			Matcher.setCapacity(RideRole.PASSENGER, 1);
+			matcher = new Matcher();
+
+			List<Long> passengerRideIds = new ArrayList<>();
+
+			matcher.addRide(getUser(0, 0), from, to, PLATES[0], COSTS[0]);
+
+			for (int i = 0; i < 3; i++)
+				passengerRideIds.add(matcher.addRide(allUsers.register("Passenger" + i, "Passenger " + i),
+						from, to, null, COSTS[0]));
+
+			assertEquals(1, Matcher.getCapacity(RideRole.PASSENGER));
+			for (long passengerRideId : passengerRideIds)
+				assertEquals(1, matcher.updateRide(passengerRideId, from).size());
+		} finally {
+			Matcher.setCapacity(RideRole.PASSENGER, defaultCapacity);
+		}
+	}
+
+	/**
+	 * Batch update: rides updated together are matched with a single ride match,
+	 * and rides in distant locations are not matched.
+	 * @throws RideSharingAppException on deserialization error.
+	 */
+	@Test
+	public void testUpdateRides() throws RideSharingAppException {
+		User driver    = getUser(0,0);
+		User passenger = getUser(1);
+		User distant   = getUser(2);
+
+		long driverRideId    = matcher.addRide(driver,    other, to, PLATES[0],COSTS[0]);
+		long passengerRideId = matcher.addRide(passenger, other, to, null,COSTS[0]);
+		long distantRideId   = matcher.addRide(distant,   other, to, null,COSTS[0]);
+
+		Map<Long, SortedSet<RideMatch>> matches = matcher.updateRides(Map.of(
+				driverRideId, from,
+				passengerRideId, new Location(X1 + RADIUS / 2, Y1),
+				distantRideId, new Location(X1 + 2 * RADIUS, Y1),
+				0L, from));
+
+		assertEquals(1, matches.get(driverRideId).size());
+		assertEquals(1, matches.get(passengerRideId).size());
+		assertEquals(0, matches.get(distantRideId).size());
+		assertEquals(0, matches.get(0L).size());
+
+		RideMatch match = matches.get(driverRideId).first();
+
+		assertEquals(match, matches.get(passengerRideId).first());
+		assertEquals(NAMES[0], match.getName(RideRole.DRIVER));
+		assertEquals(NAMES[1], match.getName(RideRole.PASSENGER));
+
+		matcher.acceptMatch(driverRideId, match.getId());
+		matcher.acceptMatch(passengerRideId, match.getId());
+
+		assertEquals(0, matcher.updateRides(Map.of(driverRideId, from)).get(driverRideId).size());
+	}
+
+	/**
+	 * Batch updates find the same matches of single updates, for rides spread around cell boundaries
+	 * @throws RideSharingAppException on deserialization error.
+	 */
+	@Test
+	public void testUpdateRidesSameAsSingle() throws RideSharingAppException {
+		final int count = 40;
+		Matcher single = new Matcher();
+		Map<Long, Location> locations = new HashMap<>();
+		Map<Long, Long> singleIds = new HashMap<>();
+		Random random = new Random(0);
+
+		for (int i = 0; i < count; i++) {
+			User user = allUsers.register("User" + i, "User " + i);
+			String plate = i % 2 == 0 ? PLATES[0] : null;
+			Location location = new Location(X1 + random.nextDouble() * 4 * RADIUS, Y1 + random.nextDouble() * 4 * RADIUS);
+
+			if (plate != null)
+				user.addCar(new Car(PLATES[0], MAKES[0], MODELS[0], COLORS[0]));
+
+			long rideId = matcher.addRide(user, location, to, plate, COSTS[0]);
+			long singleId = single.addRide(user, location, to, plate, COSTS[0]);
+
+			locations.put(rideId, location);
+			singleIds.put(rideId, singleId);
+		}
+
+		Map<Long, SortedSet<RideMatch>> matches = matcher.updateRides(locations);
+
+		for (Map.Entry<Long, Location> entry : locations.entrySet())
+			assertEquals(single.updateRide(singleIds.get(entry.getKey()), entry.getValue()).size(),
+					matches.get(entry.getKey()).size());
+	}
+
 	/**
 	 * Double match: two drivers with same path (origin and destination).
 	 * First has more starts and is used the default preference (BETTER).
@@ -500,4 +811,40 @@ public class MatcherTest extends TestData {
 		
 		assertEquals(PLATES[2],passengerMatch.getCar().getPlate());
 	}
+
+	/**
+	 * Concurrent matching: pairs of driver and passenger in distant locations are updated
+	 * from different threads in a thread safe matcher, and each finds exactly its partner.
+	 * @throws Exception on deserialization error or failure in a thread.
+	 */
+	@Test
+	public void testConcurrentMatches() throws Exception {
+		final int pairs = 20;
+		final int stripes = 4;
+		final double gap = 3 * RADIUS;
+		Matcher concurrent = new Matcher(stripes);
+		ExecutorService executor = Executors.newFixedThreadPool(pairs / 2);
+		List<Future<Integer>> futures = new ArrayList<>();
+
+		for (int i = 0; i < pairs; i++) {
+			User driver    = allUsers.register("Driver" + i, "Driver " + i);
+			User passenger = allUsers.register("Passenger" + i, "Passenger " + i);
+			Location start = new Location(TOP_LEFT_X + gap * (i + 1), Y1);
+
+			driver.addCar(new Car(PLATES[0], MAKES[0], MODELS[0], COLORS[0]));
+
+			futures.add(executor.submit(() -> {
+				long driverRideId    = concurrent.addRide(driver, start, to, PLATES[0], COSTS[0]);
+				long passengerRideId = concurrent.addRide(passenger, start, to, null, COSTS[0]);
+
+				concurrent.updateRide(driverRideId, start);
+				return concurrent.updateRide(passengerRideId, start).size();
+			}));
+		}
+
+		for (Future<Integer> future : futures)
+			assertEquals(1, future.get());
+
+		executor.shutdown();
+	}
 }
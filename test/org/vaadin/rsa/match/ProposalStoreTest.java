@@ -0,0 +1,83 @@
+package org.vaadin.rsa.match;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.vaadin.rsa.TestData;
+import org.vaadin.rsa.ride.Ride;
+import org.vaadin.rsa.ride.RideRole;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test a ProposalStore. Proposals must be removed when expired or when there are too many,
+ * unless accepted, and lookups and removals must be counted.
+ */
+public class ProposalStoreTest extends TestData {
+
+	private static final int MAX_PROPOSALS = 3;
+
+	Location from;
+	Location to;
+
+	@BeforeEach
+	public void setUp() {
+		from = new Location(X1, Y1);
+		to = new Location(X2, Y2);
+	}
+
+	private RideMatch createMatch() {
+		return new RideMatch(new Ride(null, from, to, PLATES[0], COST), new Ride(null, from, to, null, COST));
+	}
+
+	/**
+	 * Proposals are found until they expire, then lookups fail with ExpiredMatchException
+	 */
+	@Test
+	public void testExpiration() {
+		ProposalStore store = new ProposalStore(0, MAX_PROPOSALS);
+		RideMatch match = createMatch();
+
+		store.add(match);
+		assertSame(match, store.get(match.getId()));
+
+		store.sweep();
+		ExpiredMatchException exception = assertThrows(ExpiredMatchException.class, () -> store.get(match.getId()));
+		assertEquals(match.getId(), exception.getMatchId());
+
+		assertEquals(new ProposalStatistics(1, 1, 1, 0, 0), store.getStatistics());
+	}
+
+	/**
+	 * The oldest proposals are evicted when there are more than the maximum
+	 */
+	@Test
+	public void testEviction() {
+		ProposalStore store = new ProposalStore(Long.MAX_VALUE / 2, MAX_PROPOSALS);
+		RideMatch oldest = createMatch();
+
+		store.add(oldest);
+		for (int i = 0; i < MAX_PROPOSALS; i++) {
+			store.add(createMatch());
+		}
+
+		assertThrows(ExpiredMatchException.class, () -> store.get(oldest.getId()));
+		assertEquals(new ProposalStatistics(0, 1, 0, 1, MAX_PROPOSALS), store.getStatistics());
+	}
+
+	/**
+	 * Accepted matches are neither expired nor evicted, until removed
+	 */
+	@Test
+	public void testAcceptedKept() {
+		ProposalStore store = new ProposalStore(0, MAX_PROPOSALS);
+		RideMatch match = createMatch();
+
+		store.add(match);
+		match.getRide(RideRole.DRIVER).setMatch(match);
+		store.sweep();
+		assertSame(match, store.get(match.getId()));
+
+		store.remove(match.getId());
+		assertThrows(ExpiredMatchException.class, () -> store.get(match.getId()));
+	}
+}
@@ -114,6 +114,43 @@ public class LeafTrieTest {
 		assertNull(leaf.find(CENTER));
 	}
 	
+	/**
+	 * Check that deleting a point in the middle of the leaf keeps the remaining ones
+	 */
+	@Test
+	public void testDeleteKeepsOthers() {
+		generateLocationsInGrid();
+
+		leaf.delete(CENTER);
+		leaf.collectAll(points);
+
+		assertAll(
+				() -> assertEquals(8, points.size()),
+				() -> assertFalse(points.contains(CENTER)),
+				() -> {
+					for (Location location : points)
+						assertEquals(location, leaf.find(location));
+				});
+	}
+
+	/**
+	 * More points than capacity with the same coordinates are kept in the leaf, since they cannot be split
+	 */
+	@Test
+	public void testInsertSameCoordinates() {
+		Trie<Location> trie = leaf;
+
+		for (int i = 0; i < 2 * CAPACITY; i++)
+			trie = trie.insert(new Location("" + i, CENTER_Y, CENTER_X));
+
+		trie.collectAll(points);
+
+		assertAll(
+				() -> assertSame(leaf, leaf.insert(new Location("another", CENTER_Y, CENTER_X))),
+				() -> assertEquals(2 * CAPACITY, points.size()),
+				() -> assertInstanceOf(NodeTrie.class, leaf.insert(new Location("", CENTER_Y + 1, CENTER_X))));
+	}
+
 	private static final Random random = new Random();
 
 	/**
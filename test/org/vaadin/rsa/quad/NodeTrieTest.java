@@ -57,6 +57,23 @@ public class NodeTrieTest {
 
 
 	
+	/**
+	 * Quadrants of points in corners and on the center lines
+	 */
+	@Test
+	public void testQuadrantOf() {
+		assertAll(
+				() -> assertEquals(Trie.Quadrant.NW, node.quadrantOf(TOP_LEFT_X, TOP_LEFT_Y)),
+				() -> assertEquals(Trie.Quadrant.NE, node.quadrantOf(BOTTOM_RIGHT_X, TOP_LEFT_Y)),
+				() -> assertEquals(Trie.Quadrant.SW, node.quadrantOf(TOP_LEFT_X, BOTTOM_RIGHT_Y)),
+				() -> assertEquals(Trie.Quadrant.SE, node.quadrantOf(BOTTOM_RIGHT_X, BOTTOM_RIGHT_Y)),
+				() -> assertEquals(Trie.Quadrant.NW, node.quadrantOf(CENTER_X, CENTER_Y)),
+				() -> assertEquals(Trie.Quadrant.NE, node.quadrantOf(CENTER_X + 1, CENTER_Y)),
+				() -> assertEquals(Trie.Quadrant.SW, node.quadrantOf(CENTER_X, CENTER_Y - 1)),
+				() -> assertEquals(Trie.Quadrant.SE, node.quadrantOf(CENTER_X + 1, CENTER_Y - 1))
+				);
+	}
+
 	/**
 	 * No nodes before insertion, either with collect or find
 	 */
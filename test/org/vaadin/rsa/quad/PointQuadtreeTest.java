@@ -10,6 +10,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -43,6 +44,9 @@ public class PointQuadtreeTest {
 
 	private static final int SMALL_RADIUS = 1;
 
+	private static final int MANY_POINTS = 100000;
+	private static final int REPETITIONS = 100;
+
 	static Map<String,Location> locations;
 
 	@BeforeAll
@@ -243,6 +247,38 @@ public class PointQuadtreeTest {
 		assertEquals(expected,quad.findNear(CENTER_X, CENTER_Y, radius).size());
 	}
 
+	/**
+	 * Points passed to forEachNear are the same found by findNear
+	 */
+	@Test
+	public void testForEachNear() {
+		quad = loadLocations();
+		Set<Location> near = new HashSet<>();
+
+		quad.forEachNear(porto.x(), porto.y(), SLACK, near::add);
+
+		assertAll(
+				() -> assertFalse(near.isEmpty()),
+				() -> assertEquals(quad.findNear(porto.x(), porto.y(), SLACK), near));
+	}
+
+	/**
+	 * The search for any near point stops at the first point satisfying the condition
+	 */
+	@Test
+	public void testFindAnyNear() {
+		quad = loadLocations();
+		int[] tested = new int[1];
+
+		Location found = quad.findAnyNear(porto.x(), porto.y(), SLACK, location -> ++tested[0] > 0);
+
+		assertAll(
+				() -> assertNotNull(found),
+				() -> assertTrue(quad.findNear(porto.x(), porto.y(), SLACK).contains(found)),
+				() -> assertEquals(1, tested[0]),
+				() -> assertNull(quad.findAnyNear(porto.x(), porto.y(), SLACK, location -> false)));
+	}
+
 	/**
 	 * Check all points in Portuguese locations
 	 */
@@ -259,6 +295,389 @@ public class PointQuadtreeTest {
 		assertEquals(313,count);
 	}
 
+	/**
+	 * A point that can be moved, with identity equality
+	 */
+	static class MovingPoint implements HasPoint {
+		double x;
+		double y;
+
+		MovingPoint(double x, double y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public double x() {
+			return x;
+		}
+
+		@Override
+		public double y() {
+			return y;
+		}
+
+		@Override
+		public void moveTo(double x, double y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	/**
+	 * Moved points are found only in their new position, whether they stay in the same leaf or not
+	 */
+	@Test
+	public void testMove() {
+		PointQuadtree<MovingPoint> moving = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y);
+		Random random = new Random(0);
+		List<MovingPoint> points = new ArrayList<>();
+
+		for(int i=0; i < CAPACITY * CAPACITY; i++) {
+			MovingPoint point = new MovingPoint(
+					TOP_LEFT_X + random.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X),
+					BOTTOM_RIGHT_Y + random.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y));
+			points.add(point);
+			moving.insert(point);
+		}
+
+		for(MovingPoint point: points) {
+			double oldX = point.x();
+			double oldY = point.y();
+			double newX = TOP_LEFT_X + random.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X);
+			double newY = BOTTOM_RIGHT_Y + random.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y);
+
+			moving.move(point, newX, newY);
+
+			assertAll(
+					() -> assertEquals(newX, point.x()),
+					() -> assertEquals(newY, point.y()),
+					() -> assertTrue(moving.findNear(newX, newY, 0).contains(point)),
+					() -> assertFalse(moving.findNear(oldX, oldY, 0).contains(point)));
+		}
+
+		assertEquals(new HashSet<>(points), moving.getAll());
+
+		for(MovingPoint point: points)
+			moving.delete(point);
+
+		assertTrue(moving.getAll().isEmpty());
+	}
+
+	/**
+	 * Moving a point to a nearby position in the same leaf
+	 */
+	@Test
+	public void testMoveInPlace() {
+		PointQuadtree<MovingPoint> moving = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y);
+		MovingPoint point = new MovingPoint(CENTER_X, CENTER_Y);
+
+		moving.insert(point);
+		moving.move(point, CENTER_X + SMALL_RADIUS, CENTER_Y);
+
+		assertEquals(Set.of(point), moving.findNear(CENTER_X + SMALL_RADIUS, CENTER_Y, 0));
+	}
+
+	/**
+	 * Moving a point that is not in the quad tree inserts it; moving outside the boundaries raises an exception
+	 */
+	@Test
+	public void testMoveAbsentAndOutOfBounds() {
+		PointQuadtree<MovingPoint> moving = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y);
+		MovingPoint point = new MovingPoint(CENTER_X, CENTER_Y);
+
+		moving.move(point, CENTER_X, CENTER_Y + SMALL_RADIUS);
+		assertEquals(Set.of(point), moving.getAll());
+
+		assertThrows(PointOutOfBoundException.class,
+				() -> moving.move(point, TOO_LARGE_COORDINATE, CENTER_Y));
+		assertEquals(CENTER_Y + SMALL_RADIUS, point.y());
+	}
+
+	/**
+	 * A point that cannot be moved to another quadrant raises an exception and remains in its position
+	 */
+	@Test
+	public void testMoveImmutable() {
+		Random random = new Random(0);
+
+		for(int i=0; i < CAPACITY * CAPACITY; i++) {
+			quad.insert(new Location("Location " + i,
+					BOTTOM_RIGHT_Y + random.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y),
+					TOP_LEFT_X + random.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X)));
+		}
+
+		Location fixed = new Location("Fixed", BOTTOM_RIGHT_Y + SMALL_RADIUS, TOP_LEFT_X + SMALL_RADIUS);
+		quad.insert(fixed);
+		int size = quad.getAll().size();
+
+		assertThrows(UnsupportedOperationException.class,
+				() -> quad.move(fixed, BOTTOM_RIGHT_X - SMALL_RADIUS, TOP_LEFT_Y - SMALL_RADIUS));
+
+		assertAll(
+				() -> assertEquals(fixed, quad.find(fixed)),
+				() -> assertTrue(quad.findNear(fixed.x(), fixed.y(), 0).contains(fixed)),
+				() -> assertEquals(size, quad.getAll().size()));
+	}
+
+	/**
+	 * Deleting points merges underfull leaves, until a single empty leaf remains
+	 */
+	@Test
+	public void testMergeOnDelete() {
+		PointQuadtree<MovingPoint> points = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y);
+		List<MovingPoint> inserted = new ArrayList<>();
+		Random random = new Random(0);
+
+		for(int i=0; i < CAPACITY * CAPACITY; i++) {
+			MovingPoint point = new MovingPoint(
+					TOP_LEFT_X + random.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X),
+					BOTTOM_RIGHT_Y + random.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y));
+			inserted.add(point);
+			points.insert(point);
+		}
+
+		QuadtreeStatistics full = points.getStatistics();
+		assertAll(
+				() -> assertEquals(CAPACITY * CAPACITY, full.points()),
+				() -> assertTrue(full.depth() > 1),
+				() -> assertTrue(full.nodes() > 0));
+
+		for(MovingPoint point: inserted.subList(Trie.getMergeThreshold(), inserted.size()))
+			points.delete(point);
+
+		assertEquals(new QuadtreeStatistics(1, 0, 1, Trie.getMergeThreshold()), points.getStatistics());
+
+		for(MovingPoint point: inserted.subList(0, Trie.getMergeThreshold()))
+			points.delete(point);
+
+		assertEquals(new QuadtreeStatistics(1, 0, 1, 0), points.getStatistics());
+	}
+
+	/**
+	 * Compacting after increasing capacity merges all points in a single leaf
+	 */
+	@Test
+	public void testCompact() {
+		quad = loadLocations();
+		QuadtreeStatistics before = quad.getStatistics();
+
+		try {
+			Trie.setCapacity(before.points());
+			quad.compact();
+		} finally {
+			Trie.setCapacity(CAPACITY);
+		}
+
+		assertAll(
+				() -> assertTrue(before.depth() > 1),
+				() -> assertEquals(new QuadtreeStatistics(1, 0, 1, before.points()), quad.getStatistics()),
+				() -> assertEquals(before.points(), quad.getAll().size()));
+	}
+
+	/**
+	 * A visitor counting the tries visited by a search of near points, pruned as in {@code collectNear()}
+	 */
+	static class NearVisitCounter<T extends HasPoint> implements Visitor<T> {
+		final double x;
+		final double y;
+		final double radius;
+		int visited = 0;
+
+		NearVisitCounter(double x, double y, double radius) {
+			this.x = x;
+			this.y = y;
+			this.radius = radius;
+		}
+
+		@Override
+		public void visit(NodeTrie<T> node) {
+			visited++;
+			for(Trie<T> trie: node.getTries())
+				if(trie.overlaps(x, y, radius))
+					trie.accept(this);
+		}
+
+		@Override
+		public void visit(LeafTrie<T> leaf) {
+			visited++;
+		}
+	}
+
+	/**
+	 * Searches for near points with a small radius visit a number of tries proportional
+	 * to the depth of the tree and the number of points found, not the whole tree
+	 */
+	@Test
+	public void testFindNearVisitsFewTries() {
+		PointQuadtree<MovingPoint> points = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y);
+		Random random = new Random(0);
+		double radius = (BOTTOM_RIGHT_X - TOP_LEFT_X) / 100D;
+
+		for(int i=0; i < MANY_POINTS; i++)
+			points.insert(new MovingPoint(
+					TOP_LEFT_X + random.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X),
+					BOTTOM_RIGHT_Y + random.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y)));
+
+		QuadtreeStatistics statistics = points.getStatistics();
+
+		for(int query=0; query < REPETITIONS; query++) {
+			double x = TOP_LEFT_X + random.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X);
+			double y = BOTTOM_RIGHT_Y + random.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y);
+			NearVisitCounter<MovingPoint> counter = new NearVisitCounter<>(x, y, radius);
+			int found = points.findNear(x, y, radius).size();
+
+			points.top.accept(counter);
+
+			assertTrue(counter.visited <= 4 * (statistics.depth() + found),
+					"visited " + counter.visited + " tries of " + (statistics.nodes() + statistics.leaves()));
+		}
+	}
+
+	/**
+	 * A bulk loaded quad tree has the same points of one built by insertion, with full leaves
+	 */
+	@Test
+	public void testBulkLoad() {
+		PointQuadtree<MovingPoint> inserted = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y);
+		List<MovingPoint> all = new ArrayList<>();
+		Random random = new Random(0);
+
+		for(int i=0; i < MANY_POINTS; i++) {
+			MovingPoint point = new MovingPoint(
+					TOP_LEFT_X + random.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X),
+					BOTTOM_RIGHT_Y + random.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y));
+			all.add(point);
+			inserted.insert(point);
+		}
+
+		PointQuadtree<MovingPoint> loaded =
+				PointQuadtree.fromPoints(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y, all);
+		QuadtreeStatistics statistics = loaded.getStatistics();
+
+		assertAll(
+				() -> assertEquals(inserted.getAll(), loaded.getAll()),
+				() -> assertEquals(inserted.getStatistics(), statistics),
+				() -> assertEquals(inserted.findNear(CENTER_X, CENTER_Y, SMALL_RADIUS),
+						loaded.findNear(CENTER_X, CENTER_Y, SMALL_RADIUS)),
+				() -> {
+					for(int i=0; i < REPETITIONS; i++)
+						assertEquals(all.get(i), loaded.find(all.get(i)));
+				});
+	}
+
+	/**
+	 * Bulk loading keeps the points already in the quad tree and ignores equal ones,
+	 * and inserts none if any of them is out of boundaries
+	 */
+	@Test
+	public void testBulkLoadExisting() {
+		Location center = new Location("center", CENTER_Y, CENTER_X);
+		Location corner = new Location("corner", TOP_LEFT_Y, TOP_LEFT_X);
+		Location outside = new Location("outside", TOO_LARGE_COORDINATE, CENTER_X);
+
+		quad.insert(center);
+		quad.bulkLoad(List.of(center, corner));
+
+		assertAll(
+				() -> assertEquals(Set.of(center, corner), quad.getAll()),
+				() -> assertThrows(PointOutOfBoundException.class, () -> quad.bulkLoad(List.of(outside))),
+				() -> assertEquals(Set.of(center, corner), quad.getAll()));
+	}
+
+	/**
+	 * More points than capacity with the same coordinates are kept in a single leaf
+	 */
+	@Test
+	public void testBulkLoadSameCoordinates() {
+		PointQuadtree<MovingPoint> points = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y);
+		List<MovingPoint> same = new ArrayList<>();
+
+		for(int i=0; i < 2 * CAPACITY; i++)
+			same.add(new MovingPoint(CENTER_X, CENTER_Y));
+
+		points.bulkLoad(same);
+
+		assertAll(
+				() -> assertEquals(new HashSet<>(same), points.getAll()),
+				() -> assertEquals(new HashSet<>(same), points.findNear(CENTER_X, CENTER_Y, 0)));
+	}
+
+	/**
+	 * Quad trees with their own capacity split their buckets independently of the default capacity
+	 */
+	@Test
+	public void testOwnCapacity() {
+		int capacity = CAPACITY / 2;
+		PointQuadtree<Location> small = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y, capacity);
+
+		for(int i=0; i <= capacity; i++) {
+			Location location = new Location("", CENTER_Y + i / 10.0, CENTER_X + i / 10.0);
+			small.insert(location);
+			quad.insert(location);
+		}
+
+		assertAll(
+				() -> assertEquals(capacity, small.getCapacity()),
+				() -> assertEquals(CAPACITY, quad.getCapacity()),
+				() -> assertEquals(0, quad.getStatistics().nodes()),
+				() -> assertTrue(small.getStatistics().nodes() > 0),
+				() -> assertEquals(quad.getAll(), small.getAll()),
+				() -> assertThrows(IllegalArgumentException.class,
+						() -> new PointQuadtree<Location>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y, -1)));
+	}
+
+	/**
+	 * Nearest points are the same as those found by sorting all points by distance, with the same filter
+	 */
+	@Test
+	public void testFindNearest() {
+		PointQuadtree<MovingPoint> points = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y);
+		List<MovingPoint> all = new ArrayList<>();
+		Random random = new Random(0);
+		int k = CAPACITY;
+
+		for(int i=0; i < CAPACITY * CAPACITY * CAPACITY; i++) {
+			MovingPoint point = new MovingPoint(
+					TOP_LEFT_X + random.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X),
+					BOTTOM_RIGHT_Y + random.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y));
+			all.add(point);
+			points.insert(point);
+		}
+
+		for(int query=0; query < REPETITIONS; query++) {
+			double x = TOP_LEFT_X + random.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X);
+			double y = BOTTOM_RIGHT_Y + random.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y);
+			double radius = random.nextDouble() * SMALL_RADIUS;
+			List<MovingPoint> expected = all.stream()
+					.filter(point -> point.x() > x)
+					.filter(point -> Trie.getDistance(x, y, point.x(), point.y()) <= radius)
+					.sorted(Comparator.comparingDouble(point -> Trie.getDistance(x, y, point.x(), point.y())))
+					.limit(k)
+					.toList();
+
+			assertEquals(expected, points.findNearest(x, y, k, radius, point -> point.x() > x));
+		}
+	}
+
+	/**
+	 * Nearest points in an empty quad tree, or with no radius, are none, and a negative number of them is rejected
+	 */
+	@Test
+	public void testFindNearestNone() {
+		assertTrue(quad.findNearest(CENTER_X, CENTER_Y, 1, SMALL_RADIUS, location -> true).isEmpty());
+
+		quad.insert(new Location("", CENTER_Y + SMALL_RADIUS, CENTER_X));
+
+		assertAll(
+				() -> assertTrue(quad.findNearest(CENTER_X, CENTER_Y, 1, 0, location -> true).isEmpty()),
+				() -> assertTrue(quad.findNearest(CENTER_X, CENTER_Y, 0, SMALL_RADIUS, location -> true).isEmpty()),
+				() -> assertTrue(quad.findNearest(CENTER_X, CENTER_Y, 1, SMALL_RADIUS, location -> false).isEmpty()),
+				() -> assertEquals(1, quad.findNearest(CENTER_X, CENTER_Y, 1, SMALL_RADIUS, location -> true).size()),
+				() -> assertThrows(IllegalArgumentException.class,
+						() -> quad.findNearest(CENTER_X, CENTER_Y, -1, SMALL_RADIUS, location -> true)));
+	}
+
 	/**
 	 * Test iterable pattern in quad tree
 	 */
@@ -276,6 +695,68 @@ public class PointQuadtreeTest {
 	}
 
 
+	/**
+	 * The iterator returns each point once and then fails
+	 */
+	@Test
+	public void testIteratorExhausted() {
+		quad = loadLocations();
+		Iterator<Location> iterator = quad.iterator();
+		Set<Location> all = new HashSet<>();
+
+		while(iterator.hasNext())
+			assertTrue(all.add(iterator.next()));
+
+		assertAll(
+				() -> assertEquals(quad.getAll(), all),
+				() -> assertThrows(NoSuchElementException.class, iterator::next),
+				() -> assertFalse(new PointQuadtree<Location>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y)
+						.iterator().hasNext()));
+	}
+
+	/**
+	 * Sequential and parallel streams have all points, once
+	 */
+	@Test
+	public void testStream() {
+		quad = loadLocations();
+
+		assertAll(
+				() -> assertEquals(313, quad.stream().count()),
+				() -> assertEquals(313, quad.parallelStream().distinct().count()),
+				() -> assertEquals(quad.getAll(), quad.parallelStream().collect(Collectors.toSet())));
+	}
+
+	/**
+	 * Splits of a spliterator over many points are disjoint and cover all points
+	 */
+	@Test
+	public void testSpliteratorSplits() {
+		PointQuadtree<MovingPoint> points = new PointQuadtree<>(TOP_LEFT_X,TOP_LEFT_Y,BOTTOM_RIGHT_X,BOTTOM_RIGHT_Y);
+		Random random = new Random(0);
+
+		for(int i=0; i < MANY_POINTS; i++)
+			points.insert(new MovingPoint(
+					TOP_LEFT_X + random.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X),
+					BOTTOM_RIGHT_Y + random.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y)));
+
+		Spliterator<MovingPoint> suffix = points.spliterator();
+		Spliterator<MovingPoint> prefix = suffix.trySplit();
+		Set<MovingPoint> first = new HashSet<>();
+		Set<MovingPoint> second = new HashSet<>();
+
+		assertNotNull(prefix);
+		prefix.forEachRemaining(first::add);
+		while(suffix.tryAdvance(second::add));
+
+		assertAll(
+				() -> assertFalse(first.isEmpty()),
+				() -> assertFalse(second.isEmpty()),
+				() -> assertTrue(Collections.disjoint(first, second)),
+				() -> assertEquals(MANY_POINTS, first.size() + second.size()),
+				() -> assertEquals(MANY_POINTS, points.parallelStream().count()));
+	}
+
 	/**
 	 * Load Portuguese locations file into a quad tree
 	 * Retrieve locations near Porto and check them against expected results
@@ -0,0 +1,257 @@
+package org.vaadin.rsa.quad;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test on a StripedPointQuadtree, a thread safe quad tree split in tiles.
+ * Results must be the same of a {@code PointQuadtree} with the same points.
+ */
+public class StripedPointQuadtreeTest {
+
+	private static final int CAPACITY = 10;
+	private static final int STRIPES = 4;
+
+	private static final int BOTTOM_RIGHT_Y = 10;
+	private static final int BOTTOM_RIGHT_X = 20;
+	private static final int TOP_LEFT_Y = 20;
+	private static final int TOP_LEFT_X = 10;
+
+	private static final int TOO_LARGE_COORDINATE = 30;
+
+	private static final int THREADS = 8;
+	private static final int POINTS_PER_THREAD = 1000;
+
+	private final Random random = new Random(0);
+
+	StripedPointQuadtree<Location> striped;
+	PointQuadtree<Location> plain;
+
+	@BeforeAll
+	static public void setUp() {
+		Trie.setCapacity(CAPACITY);
+	}
+
+	@BeforeEach
+	public void prepare() {
+		striped = new StripedPointQuadtree<>(TOP_LEFT_X, TOP_LEFT_Y, BOTTOM_RIGHT_X, BOTTOM_RIGHT_Y, STRIPES);
+		plain = new PointQuadtree<>(TOP_LEFT_X, TOP_LEFT_Y, BOTTOM_RIGHT_X, BOTTOM_RIGHT_Y);
+	}
+
+	private Location randomLocation(String name) {
+		double x = TOP_LEFT_X + random.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X);
+		double y = BOTTOM_RIGHT_Y + random.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y);
+		return new Location(name, y, x);
+	}
+
+	/**
+	 * Points outside the boundaries should raise an exception, those in corners and tile boundaries should not
+	 */
+	@Test
+	public void testBoundaries() {
+		assertThrows(PointOutOfBoundException.class,
+				() -> striped.insert(new Location("too high", TOO_LARGE_COORDINATE, TOP_LEFT_X)));
+
+		for (double x = TOP_LEFT_X; x <= BOTTOM_RIGHT_X; x += 0.5)
+			for (double y = BOTTOM_RIGHT_Y; y <= TOP_LEFT_Y; y += 0.5) {
+				Location location = new Location("", y, x);
+				striped.insert(location);
+				assertEquals(location, striped.find(location));
+			}
+	}
+
+	/**
+	 * Check if point is absent after deletion
+	 */
+	@Test
+	public void testDelete() {
+		Location location = randomLocation("deleted");
+
+		striped.insert(location);
+		assertEquals(location, striped.find(location));
+
+		striped.delete(location);
+		assertNull(striped.find(location));
+	}
+
+	/**
+	 * Near points should be the same as in a plain quad tree, including those in neighbour tiles
+	 */
+	@Test
+	public void testFindNearSameAsPlain() {
+		for (int i = 0; i < POINTS_PER_THREAD; i++) {
+			Location location = randomLocation("" + i);
+			striped.insert(location);
+			plain.insert(location);
+		}
+
+		for (double radius = 0.5; radius <= 4; radius += 0.5) {
+			Location center = randomLocation("center");
+			assertEquals(plain.findNear(center.x(), center.y(), radius),
+					striped.findNear(center.x(), center.y(), radius));
+		}
+
+		assertEquals(plain.getAll(), striped.getAll());
+	}
+
+	/**
+	 * Points passed to forEachNear should be the same found by findNear, across tiles
+	 */
+	@Test
+	public void testForEachNearSameAsFindNear() {
+		for (int i = 0; i < POINTS_PER_THREAD; i++)
+			striped.insert(randomLocation("" + i));
+
+		for (double radius = 0.5; radius <= 4; radius += 0.5) {
+			Location center = randomLocation("center");
+			Set<Location> near = new HashSet<>();
+
+			striped.forEachNear(center.x(), center.y(), radius, near::add);
+			assertEquals(striped.findNear(center.x(), center.y(), radius), near);
+		}
+	}
+
+	/**
+	 * Parallel streams should have the points of all tiles
+	 */
+	@Test
+	public void testParallelStream() {
+		for (int i = 0; i < POINTS_PER_THREAD; i++)
+			striped.insert(randomLocation("" + i));
+
+		assertEquals(striped.getAll(), striped.parallelStream().collect(Collectors.toSet()));
+	}
+
+	/**
+	 * Bulk loaded points should be distributed by tiles, as if inserted one by one
+	 */
+	@Test
+	public void testBulkLoad() {
+		List<Location> locations = new ArrayList<>();
+
+		for (int i = 0; i < POINTS_PER_THREAD; i++)
+			locations.add(randomLocation("" + i));
+
+		striped.bulkLoad(locations);
+		plain.bulkLoad(locations);
+
+		assertAll(
+				() -> assertEquals(plain.getAll(), striped.getAll()),
+				() -> {
+					for (Location location : locations)
+						assertEquals(location, striped.find(location));
+				});
+	}
+
+	/**
+	 * Nearest points should be the same as in a plain quad tree, including those in neighbour tiles
+	 */
+	@Test
+	public void testFindNearestSameAsPlain() {
+		for (int i = 0; i < POINTS_PER_THREAD; i++) {
+			Location location = randomLocation("" + i);
+			striped.insert(location);
+			plain.insert(location);
+		}
+
+		for (int k = 1; k <= CAPACITY * CAPACITY; k *= 2) {
+			Location center = randomLocation("center");
+			assertEquals(plain.findNearest(center.x(), center.y(), k, Double.POSITIVE_INFINITY, location -> true),
+					striped.findNearest(center.x(), center.y(), k, Double.POSITIVE_INFINITY, location -> true));
+		}
+	}
+
+	/**
+	 * Concurrent inserts from several threads should not lose points
+	 */
+	@Test
+	public void testConcurrentInsert() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<Set<Location>>> futures = new ArrayList<>();
+
+		for (int t = 0; t < THREADS; t++) {
+			Random threadRandom = new Random(t);
+			String prefix = "t" + t + "-";
+
+			futures.add(executor.submit(() -> {
+				Set<Location> inserted = new HashSet<>();
+				for (int i = 0; i < POINTS_PER_THREAD; i++) {
+					double x = TOP_LEFT_X + threadRandom.nextDouble() * (BOTTOM_RIGHT_X - TOP_LEFT_X);
+					double y = BOTTOM_RIGHT_Y + threadRandom.nextDouble() * (TOP_LEFT_Y - BOTTOM_RIGHT_Y);
+					Location location = new Location(prefix + i, y, x);
+					striped.insert(location);
+					inserted.add(location);
+				}
+				return inserted;
+			}));
+		}
+
+		Set<Location> expected = new HashSet<>();
+		for (Future<Set<Location>> future : futures)
+			expected.addAll(future.get());
+		executor.shutdown();
+
+		assertEquals(expected, striped.getAll());
+
+		int count = 0;
+		for (Location location : striped) {
+			assertNotNull(location);
+			count++;
+		}
+		assertEquals(THREADS * POINTS_PER_THREAD, count);
+	}
+
+	/**
+	 * Points moved within and between tiles are found only in their new position
+	 */
+	@Test
+	public void testMove() {
+		StripedPointQuadtree<PointQuadtreeTest.MovingPoint> moving =
+				new StripedPointQuadtree<>(TOP_LEFT_X, TOP_LEFT_Y, BOTTOM_RIGHT_X, BOTTOM_RIGHT_Y, STRIPES);
+		List<PointQuadtreeTest.MovingPoint> points = new ArrayList<>();
+
+		for (int i = 0; i < POINTS_PER_THREAD; i++) {
+			Location location = randomLocation("");
+			PointQuadtreeTest.MovingPoint point = new PointQuadtreeTest.MovingPoint(location.x(), location.y());
+			points.add(point);
+			moving.insert(point);
+		}
+
+		for (PointQuadtreeTest.MovingPoint point : points) {
+			Location location = randomLocation("");
+			moving.move(point, location.x(), location.y());
+			assertTrue(moving.findNear(location.x(), location.y(), 0).contains(point));
+		}
+
+		assertEquals(new HashSet<>(points), moving.getAll());
+	}
+
+	/**
+	 * A point that cannot be moved to another tile raises an exception and remains in its tile
+	 */
+	@Test
+	public void testMoveImmutable() {
+		Location fixed = new Location("Fixed", BOTTOM_RIGHT_Y + 1, TOP_LEFT_X + 1);
+		striped.insert(fixed);
+
+		assertThrows(UnsupportedOperationException.class,
+				() -> striped.move(fixed, BOTTOM_RIGHT_X - 1, TOP_LEFT_Y - 1));
+
+		assertAll(
+				() -> assertEquals(fixed, striped.find(fixed)),
+				() -> assertEquals(Set.of(fixed), striped.getAll()));
+	}
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Test;
 //import rsa.match.Location;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -40,4 +41,33 @@ public class TrieTest {
 		assertEquals(CAPACITY, Trie.getCapacity());
 	}
 
+	/**
+	 * Test squared distance against distance
+	 */
+	@Test
+	public void testSquaredDistance() {
+		assertEquals(25, Trie.getSquaredDistance(0, 0, 3, 4));
+		assertEquals(5, Trie.getDistance(0, 0, 3, 4));
+	}
+
+	/**
+	 * Test overlap of circles with rectangle (10,20)-(20,10): inside, crossing sides,
+	 * touching corners and outside, including near corners where the bounding boxes overlap
+	 */
+	@Test
+	public void testOverlaps() {
+		Trie<Location> trie = new LeafTrie<>(10, 20, 20, 10);
+
+		assertTrue(trie.overlaps(15, 15, 1), "center inside");
+		assertTrue(trie.overlaps(5, 15, 5), "touching left side");
+		assertTrue(trie.overlaps(15, 22, 3), "crossing top side");
+		assertTrue(trie.overlaps(23, 24, 5), "touching top right corner");
+		assertTrue(trie.overlaps(0, 0, 100), "containing rectangle");
+
+		assertFalse(trie.overlaps(5, 15, 4.9), "left of rectangle");
+		assertFalse(trie.overlaps(15, 25, 4.9), "above rectangle");
+		assertFalse(trie.overlaps(24, 24, 5), "near top right corner");
+		assertFalse(trie.overlaps(6, 6, 5), "near bottom left corner");
+		assertFalse(trie.overlaps(100, 100, 1), "far away");
+	}
 }
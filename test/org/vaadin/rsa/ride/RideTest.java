@@ -433,5 +433,28 @@ class RideTest extends TestData {
                     }
             );
         }
+
+        /**
+         * Test comparator with precomputed keys: same order as the comparator, but keys are kept once computed.
+         */
+        @Test
+        void testKeyComparator() throws RideSharingAppException {
+            user.setPreferredMatch(PreferredMatch.BETTER);
+
+            var newDriver = users.getOrCreateUser("K0", NAMES[2]);
+            var newMatch = new RideMatch(new Ride(newDriver, from, to, PLATES[2], COSTS[1]), passengerRide);
+            var comparator = passengerRide.getComparator();
+            var keyComparator = passengerRide.getKeyComparator();
+            var keyOrder = keyComparator.compare(match, newMatch);
+
+            assertEquals(comparator.compare(match, newMatch), keyOrder);
+
+            // averages are kept once computed, hence more stars do not change the order
+            newDriver.addStars(UserStars.FIVE_STARS, RideRole.DRIVER);
+
+            assertEquals(keyOrder, keyComparator.compare(match, newMatch));
+            assertEquals(Double.compare(newDriver.getAverage(RideRole.DRIVER), user.getAverage(RideRole.DRIVER)),
+                    comparator.compare(match, newMatch));
+        }
     }
-}
\ No newline at end of file
+}
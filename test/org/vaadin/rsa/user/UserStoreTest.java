@@ -0,0 +1,158 @@
+package org.vaadin.rsa.user;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.vaadin.rsa.TestData;
+import org.vaadin.rsa.match.PreferredMatch;
+import org.vaadin.rsa.ride.RideRole;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test a UserStore, with each UserCodec. Users written to a store must be decoded by nick with all their data,
+ * and nicks that were not written must not be found.
+ */
+public class UserStoreTest extends TestData {
+
+	private static final File STORE_FILE = new File("test_users.store");
+	private static final long GENERATION = 7;
+
+	@AfterEach
+	public void tearDown() {
+		STORE_FILE.delete();
+	}
+
+	static Stream<UserCodec> codecProvider() {
+		return Stream.of(UserCodec.CODECS);
+	}
+
+	/**
+	 * Users are decoded by nick with their name, key, preference, stars and cars
+	 * @param codec of users
+	 * @throws IOException on store I/O errors
+	 */
+	@ParameterizedTest
+	@MethodSource("codecProvider")
+	public void testRead(UserCodec codec) throws IOException {
+		User user = new User(NICK, NAME);
+
+		user.addCar(new Car(PLATES[0], MAKES[0], MODELS[0], COLORS[0]));
+		user.addCar(new Car(PLATES[1], MAKES[1], MODELS[1], null));
+		user.addStars(UserStars.FOUR_STARS, RideRole.DRIVER);
+		user.addStars(UserStars.TWO_STARS, RideRole.DRIVER);
+		user.addStars(UserStars.FIVE_STARS, RideRole.PASSENGER);
+		user.setPreferredMatch(PreferredMatch.CLOSER);
+
+		UserStore.write(STORE_FILE, GENERATION, List.of(user, new User(NICKS[1], NAMES[1])), codec);
+		UserStore store = new UserStore(STORE_FILE);
+		User loaded = store.read(NICK);
+
+		assertAll(
+				() -> assertEquals(GENERATION, store.getGeneration()),
+				() -> assertEquals(codec.getId(), store.getCodec().getId()),
+				() -> assertEquals(2, store.size()),
+				() -> assertEquals(NAME, loaded.getName()),
+				() -> assertEquals(user.getKey(), loaded.getKey()),
+				() -> assertEquals(PreferredMatch.CLOSER, loaded.getPreferredMatch()),
+				() -> assertEquals(3, loaded.getAverage(RideRole.DRIVER), DELTA),
+				() -> assertEquals(1, loaded.getStarsCount(UserStars.FIVE_STARS, RideRole.PASSENGER)),
+				() -> assertEquals(MODELS[0], loaded.getCar(PLATES[0]).getModel()),
+				() -> assertNull(loaded.getCar(PLATES[1]).getColor()),
+				() -> assertEquals(NAMES[1], store.read(NICKS[1]).getName()),
+				() -> assertNull(store.read(NICKS[2]))
+		);
+	}
+
+	/**
+	 * All users written are found, by nick and when traversed, even with colliding entries in the index
+	 * @param codec of users
+	 * @throws IOException on store I/O errors
+	 */
+	@ParameterizedTest
+	@MethodSource("codecProvider")
+	public void testManyUsers(UserCodec codec) throws IOException {
+		List<User> written = new ArrayList<>();
+
+		for (int i = 0; i < MANY_OBJECTS / 10; i++) {
+			written.add(new User(NICK + i, NAME));
+		}
+
+		UserStore.write(STORE_FILE, GENERATION, written, codec);
+		UserStore store = new UserStore(STORE_FILE);
+		List<String> traversed = new ArrayList<>();
+
+		store.forEach(user -> traversed.add(user.getNick()));
+
+		for (User user : written) {
+			assertEquals(user.getKey(), store.read(user.getNick()).getKey());
+		}
+		assertEquals(written.stream().map(User::getNick).toList(), traversed);
+		assertNull(store.read(NICKS[1]));
+	}
+
+	/**
+	 * Common makes and colors are decoded as the same instance, and uncommon ones as they were written
+	 * @throws IOException on store I/O errors
+	 */
+	@Test
+	public void testInterned() throws IOException {
+		User user = new User(NICK, NAME);
+		String uncommon = "Lada";
+
+		user.addCar(new Car(PLATES[0], new String(MAKES[0]), MODELS[0], new String(COLORS[0])));
+		user.addCar(new Car(PLATES[1], uncommon, MODELS[1], uncommon));
+
+		UserStore.write(STORE_FILE, GENERATION, List.of(user), new BinaryUserCodec());
+		UserStore store = new UserStore(STORE_FILE);
+		Car common = store.read(NICK).getCar(PLATES[0]);
+		Car other = store.read(NICK).getCar(PLATES[0]);
+		Car literal = store.read(NICK).getCar(PLATES[1]);
+
+		assertAll(
+				() -> assertSame(common.getMake(), other.getMake()),
+				() -> assertSame(common.getColor(), other.getColor()),
+				() -> assertEquals(MAKES[0], common.getMake()),
+				() -> assertEquals(uncommon, literal.getMake()),
+				() -> assertEquals(uncommon, literal.getColor())
+		);
+	}
+
+	/**
+	 * Counts of items that are negative, or larger than an int, as in corrupted records, are rejected
+	 * @throws IOException on stream I/O errors
+	 */
+	@Test
+	public void testInvalidCount() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+
+		BinaryUserCodec.writeVarint(output, -1);
+		BinaryUserCodec.writeVarint(output, 1L << 40);
+		BinaryUserCodec.writeVarint(output, MANY_OBJECTS);
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+		assertThrows(IOException.class, () -> BinaryUserCodec.readCount(input));
+		assertThrows(IOException.class, () -> BinaryUserCodec.readCount(input));
+		assertEquals(MANY_OBJECTS, BinaryUserCodec.readCount(input));
+	}
+
+	/**
+	 * Files that are not stores are rejected
+	 * @throws IOException on file I/O errors
+	 */
+	@Test
+	public void testNotStore() throws IOException {
+		UsersJournal journal = new UsersJournal(STORE_FILE, GENERATION);
+		journal.close();
+
+		assertThrows(IOException.class, () -> new UserStore(STORE_FILE));
+	}
+}
@@ -10,6 +10,8 @@ import org.vaadin.rsa.TestData;
 import org.vaadin.rsa.match.PreferredMatch;
 import org.vaadin.rsa.ride.RideRole;
 
+import java.io.ObjectStreamClass;
+import java.util.List;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -182,6 +184,44 @@ public class UserTest extends TestData {
 		assertEquals(4.5D, user.getAverage(RideRole.PASSENGER), DELTA);
 	}
 
+	/**
+	 * Check histogram and number of reviews in each role
+	 */
+	@Test
+	public void testStarsCount() {
+		user.addStars(UserStars.FOUR_STARS, RideRole.DRIVER);
+		user.addStars(UserStars.FOUR_STARS, RideRole.DRIVER);
+		user.addStars(UserStars.ONE_STAR, RideRole.DRIVER);
+		user.addStars(UserStars.FIVE_STARS, RideRole.PASSENGER);
+
+		assertEquals(2, user.getStarsCount(UserStars.FOUR_STARS, RideRole.DRIVER));
+		assertEquals(1, user.getStarsCount(UserStars.ONE_STAR, RideRole.DRIVER));
+		assertEquals(0, user.getStarsCount(UserStars.FIVE_STARS, RideRole.DRIVER));
+		assertEquals(1, user.getStarsCount(UserStars.FIVE_STARS, RideRole.PASSENGER));
+		assertEquals(3, user.getReviewsCount(RideRole.DRIVER));
+		assertEquals(1, user.getReviewsCount(RideRole.PASSENGER));
+		assertTrue(user.getReviews(RideRole.DRIVER).isEmpty());
+	}
+
+	/**
+	 * Check that reviews are kept, in order, only for users created while auditing stars
+	 */
+	@Test
+	public void testAuditStars() {
+		try {
+			User.setAuditStars(true);
+			User audited = new User(NICKS[1], NAMES[1]);
+
+			audited.addStars(UserStars.TWO_STARS, RideRole.PASSENGER);
+			audited.addStars(UserStars.FIVE_STARS, RideRole.PASSENGER);
+
+			assertEquals(List.of(UserStars.TWO_STARS, UserStars.FIVE_STARS), audited.getReviews(RideRole.PASSENGER));
+			assertEquals(3.5, audited.getAverage(RideRole.PASSENGER), DELTA);
+		} finally {
+			User.setAuditStars(false);
+		}
+	}
+
 	/**
 	 * Tests on PreferredMatch
 	 */
@@ -216,4 +256,15 @@ public class UserTest extends TestData {
 			assertEquals(PreferredMatch.BETTER, user.getPreferredMatch());
 		}
 	}
+
+	/**
+	 * Serial versions of users and their parts are pinned, hence stores encoded with {@link SerialUserCodec}
+	 * remain readable when these classes change compatibly
+	 */
+	@Test
+	public void testSerialVersions() {
+		assertEquals(3221238599712141192L, ObjectStreamClass.lookup(User.class).getSerialVersionUID());
+		assertEquals(-5936481023876265890L, ObjectStreamClass.lookup(StarsTally.class).getSerialVersionUID());
+		assertEquals(1347484674245880242L, ObjectStreamClass.lookup(Car.class).getSerialVersionUID());
+	}
 }
@@ -2,11 +2,20 @@ package org.vaadin.rsa.user;
 
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.vaadin.rsa.TestData;
 import org.vaadin.rsa.RideSharingAppException;
+import org.vaadin.rsa.match.PreferredMatch;
+import org.vaadin.rsa.ride.RideRole;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -20,6 +29,12 @@ public class UsersTest extends TestData {
 	public static final File USERS_FILE = new File("test_users.ser");
 	static Users users;
 
+	private static final long LONG_FLUSH_PERIOD = 3_600_000;
+	private static final long SHORT_FLUSH_PERIOD = 10;
+	private static final int CHANGES = 1_000;
+	private static final int MANY_CARS = 300;
+	private static final String LEGACY_USERS = "org/vaadin/rsa/user/legacy-users.ser";
+
 	@BeforeAll
 	public static void setUpClass() throws RideSharingAppException {
 		Users.setUsersFile(USERS_FILE);
@@ -30,13 +45,15 @@ public class UsersTest extends TestData {
 	@AfterAll
 	public static void tearDownClass() {
 		if(USERS_FILE.exists()) USERS_FILE.delete();
+		Users.getJournalFile().delete();
 	}
 
 	@BeforeEach
 	public void setUp() throws Exception {
-		users.reset();
-
 		Users.setUsersFile(USERS_FILE); // some tests change it
+
+		users = Users.getInstance();
+		users.reset();
 	}
 
 	/**
@@ -87,6 +104,29 @@ public class UsersTest extends TestData {
 		);
 	}
 
+	/**
+	 * Check that registrations are recorded in the journal, started with an empty snapshot on a fresh install
+	 * and restarted when users are loaded, without writing other snapshots
+	 * @throws Exception on backup I/O errors
+	 */
+	@Test
+	public void testRegisterWithoutSnapshot() throws Exception {
+		assertTrue(USERS_FILE.exists());
+
+		users.register(NICK, NAME);
+		users.close();
+
+		var loaded = Users.getInstance();
+
+		loaded.register(NICKS[1], NAMES[1]);
+		loaded.close();
+
+		assertAll(
+				() -> assertEquals(1, new UserStore(USERS_FILE).getGeneration()),
+				() -> assertNotNull(Users.getInstance().getUser(NICK)),
+				() -> assertNotNull(Users.getInstance().getUser(NICKS[1])));
+	}
+
 	/**
 	 * Check obtaining a User by nick when it is unavailable.
 	 */
@@ -134,6 +174,392 @@ public class UsersTest extends TestData {
 		);
 	}
 
+	/**
+	 * Check that changes recorded in the journal are replayed when users are loaded again
+	 * @throws RideSharingAppException on backup I/O errors
+	 */
+	@Test
+	public void testJournalReplay() throws RideSharingAppException {
+		var user = users.register(NICK, NAME);
+		var car = new Car(PLATES[0], MAKES[0], MODELS[0], COLORS[0]);
+
+		user.addCar(car);
+		user.addCar(new Car(PLATES[1], MAKES[1], MODELS[1], null));
+		users.deleteUserCar(NICK, PLATES[1]);
+		user.addStars(UserStars.FOUR_STARS, RideRole.DRIVER);
+		user.addStars(UserStars.TWO_STARS, RideRole.DRIVER);
+		user.setPreferredMatch(PreferredMatch.CHEAPER);
+		users.register(NICKS[1], NAMES[1]);
+
+		users.close();
+		var loaded = Users.getInstance().getUser(NICK);
+
+		assertAll(
+				() -> assertEquals(NAME, loaded.getName()),
+				() -> assertEquals(user.getKey(), loaded.getKey()),
+				() -> assertEquals(MAKES[0], loaded.getCar(PLATES[0]).getMake()),
+				() -> assertNull(loaded.getCar(PLATES[1])),
+				() -> assertEquals(3, loaded.getAverage(RideRole.DRIVER), DELTA),
+				() -> assertEquals(PreferredMatch.CHEAPER, loaded.getPreferredMatch()),
+				() -> assertNotNull(Users.getInstance().getUser(NICKS[1]))
+		);
+	}
+
+	/**
+	 * Check that users with more cars than fit in a byte are replayed from the journal with all their cars
+	 * @throws RideSharingAppException on backup I/O errors
+	 */
+	@Test
+	public void testJournalManyCars() throws RideSharingAppException {
+		var user = users.register(NICK, NAME);
+
+		for (int i = 0; i < MANY_CARS; i++) {
+			user.addCar(new Car(PLATE + i, MAKE, MODEL, COLOR));
+		}
+		users.close();
+
+		assertEquals(MANY_CARS, Users.getInstance().getUser(NICK).getCars().size());
+	}
+
+	/**
+	 * Check that zeros left after the last record of the journal, as by a file system that extended it
+	 * before a crash, end the replay instead of failing it
+	 * @throws Exception on backup I/O errors
+	 */
+	@Test
+	public void testJournalZeroTail() throws Exception {
+		var user = users.register(NICK, NAME);
+
+		user.addStars(UserStars.FIVE_STARS, RideRole.PASSENGER);
+		users.close();
+
+		try (var output = new FileOutputStream(Users.getJournalFile(), true)) {
+			output.write(new byte[Long.BYTES * Long.BYTES]);
+		}
+
+		assertEquals(5, Users.getInstance().getUser(NICK).getAverage(RideRole.PASSENGER), DELTA);
+	}
+
+	/**
+	 * Check that a last record of the journal partially written by a crash is ignored,
+	 * and the records before it are replayed
+	 * @throws Exception on backup I/O errors
+	 */
+	@Test
+	public void testJournalCorruptTail() throws Exception {
+		var user = users.register(NICK, NAME);
+
+		user.addStars(UserStars.FIVE_STARS, RideRole.PASSENGER);
+		users.sync().join();
+		user.addStars(UserStars.ONE_STAR, RideRole.PASSENGER);
+		users.close();
+
+		byte[] bytes = Files.readAllBytes(Users.getJournalFile().toPath());
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(Users.getJournalFile().toPath(), bytes);
+
+		assertEquals(5, Users.getInstance().getUser(NICK).getAverage(RideRole.PASSENGER), DELTA);
+	}
+
+	/**
+	 * Check that a snapshot is written after the compaction threshold, restarting the journal,
+	 * and that changes after it are still replayed
+	 * @throws RideSharingAppException on backup I/O errors
+	 */
+	@Test
+	public void testCompaction() throws RideSharingAppException {
+		int threshold = Users.getCompactionThreshold();
+
+		try {
+			Users.setCompactionThreshold(3);
+
+			long headerLength = Users.getJournalFile().length();
+			var user = users.register(NICK, NAME);
+
+			user.addStars(UserStars.FIVE_STARS, RideRole.PASSENGER);
+			users.sync().join();
+			assertTrue(Users.getJournalFile().length() > headerLength);
+
+			user.addStars(UserStars.THREE_STARS, RideRole.PASSENGER);
+			users.sync().join();
+			assertEquals(headerLength, Users.getJournalFile().length());
+
+			user.addStars(UserStars.FOUR_STARS, RideRole.PASSENGER);
+			users.close();
+
+			assertEquals(4, Users.getInstance().getUser(NICK).getAverage(RideRole.PASSENGER), DELTA);
+		} finally {
+			Users.setCompactionThreshold(threshold);
+		}
+	}
+
+	/**
+	 * Check that a snapshot that cannot replace the previous one, as a mapped file on some platforms,
+	 * keeps the previous journal, where later changes are still recorded
+	 * @throws Exception on backup I/O errors
+	 */
+	@Test
+	public void testCompactionFailure() throws Exception {
+		var user = users.register(NICK, NAME);
+		File blocker = new File(USERS_FILE, NICK);
+
+		try {
+			assertTrue(USERS_FILE.delete() && USERS_FILE.mkdir() && blocker.createNewFile());
+			assertThrows(RideSharingAppException.class, () -> users.compact());
+
+			user.addStars(UserStars.FIVE_STARS, RideRole.PASSENGER);
+			users.sync().join();
+
+			var recorded = UsersJournal.read(Users.getJournalFile(), 1);
+			var state = (UsersChange.Put) recorded.get(recorded.size() - 1);
+
+			assertAll(
+					() -> assertEquals(NICK, state.nick()),
+					() -> assertEquals(1, state.passengerStars()[UserStars.FIVE_STARS.ordinal()]),
+					() -> assertFalse(new File(USERS_FILE.getPath() + ".tmp").exists()));
+		} finally {
+			blocker.delete();
+			USERS_FILE.delete();
+		}
+	}
+
+	/**
+	 * Check that changes made concurrently while snapshots are written, outside the lock of users,
+	 * are all recorded in the journals following them
+	 * @throws Exception on backup I/O errors or interrupted threads
+	 */
+	@Test
+	public void testCompactionWhileChanging() throws Exception {
+		int threshold = Users.getCompactionThreshold();
+		long flushPeriod = Users.getFlushPeriod();
+
+		try {
+			Users.setCompactionThreshold(1);
+			Users.setFlushPeriod(SHORT_FLUSH_PERIOD);
+
+			var user = users.register(NICK, NAME);
+			var executor = Executors.newFixedThreadPool(REPETITIONS);
+			var tasks = new ArrayList<Future<?>>();
+
+			for (int i = 0; i < REPETITIONS; i++) {
+				String prefix = NICK + "_" + i + "_";
+
+				tasks.add(executor.submit(() -> {
+					for (int j = 0; j < CHANGES; j++) {
+						user.addStars(UserStars.FIVE_STARS, RideRole.DRIVER);
+
+						if (j % REPETITIONS == 0) {
+							users.register(prefix + j, NAME);
+						}
+					}
+					return null;
+				}));
+			}
+			while (!tasks.stream().allMatch(Future::isDone)) {
+				users.compact();
+			}
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+			executor.shutdown();
+
+			users.close();
+			var loaded = Users.getInstance();
+
+			assertEquals(REPETITIONS * CHANGES, loaded.getUser(NICK).getReviewsCount(RideRole.DRIVER));
+			assertEquals(1 + REPETITIONS * CHANGES / REPETITIONS, loaded.getUsers().size());
+		} finally {
+			Users.setCompactionThreshold(threshold);
+			Users.setFlushPeriod(flushPeriod);
+		}
+	}
+
+	/**
+	 * Check that users changed while a snapshot was written, left in the pending journal by a crash
+	 * before the journal was restarted, are replayed
+	 * @throws Exception on backup I/O errors
+	 */
+	@Test
+	public void testPendingJournal() throws Exception {
+		users.register(NICK, NAME);
+		users.close();
+
+		long generation = new UserStore(USERS_FILE).getGeneration();
+		var changed = new User(NICK, NAME);
+
+		changed.addStars(UserStars.FIVE_STARS, RideRole.PASSENGER);
+		new UsersJournal(Users.getJournalFile(), generation - 1).close();
+		try (var pending = new UsersJournal(new File(USERS_FILE.getPath() + ".log.tmp"), generation)) {
+			pending.append(changed.getState());
+		}
+
+		assertEquals(5, Users.getInstance().getUser(NICK).getAverage(RideRole.PASSENGER), DELTA);
+	}
+
+	/**
+	 * Check that all users are listed once from the snapshot, as the same instances on later calls,
+	 * also after a new snapshot is written
+	 * @throws RideSharingAppException on backup I/O errors
+	 */
+	@Test
+	public void testGetUsersFromSnapshot() throws RideSharingAppException {
+		users.register(NICKS[0], NAMES[0]);
+		users.register(NICKS[1], NAMES[1]);
+		users.close();
+
+		var loaded = Users.getInstance();
+		var user = loaded.getUser(NICKS[0]);
+		List<User> all = loaded.getUsers();
+
+		loaded.register(NICKS[2], NAMES[2]);
+		loaded.compact();
+
+		assertAll(
+				() -> assertEquals(2, all.size()),
+				() -> assertTrue(all.contains(user)),
+				() -> assertEquals(3, loaded.getUsers().size()),
+				() -> assertTrue(loaded.getUsers().containsAll(all))
+		);
+		loaded.close();
+	}
+
+	/**
+	 * Check that a users file written with Java serialization, as users were saved before snapshots,
+	 * is imported once, with cars, stars and preferences, and replaced by a snapshot
+	 * @throws Exception on backup I/O errors
+	 */
+	@Test
+	public void testLegacyImport() throws Exception {
+		users.close();
+		try (InputStream legacy = ClassLoader.getSystemResourceAsStream(LEGACY_USERS)) {
+			Files.copy(legacy, USERS_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		var loaded = Users.getInstance().getUser("U0");
+
+		assertAll(
+				() -> assertEquals("Name 0", loaded.getName()),
+				() -> assertEquals(new User("U0", "Name 0").getKey(), loaded.getKey()),
+				() -> assertEquals("Corolla", loaded.getCar("OO-00-00").getModel()),
+				() -> assertEquals(3, loaded.getAverage(RideRole.DRIVER), DELTA),
+				() -> assertEquals(1, loaded.getStarsCount(UserStars.FIVE_STARS, RideRole.PASSENGER)),
+				() -> assertEquals(PreferredMatch.CLOSER, loaded.getPreferredMatch()),
+				() -> assertEquals(2, Users.getInstance().getUsers().size()),
+				() -> assertFalse(LegacyUsers.isLegacy(USERS_FILE))
+		);
+
+		loaded.addStars(UserStars.ONE_STAR, RideRole.PASSENGER);
+		Users.getInstance().close();
+
+		assertEquals(3, Users.getInstance().getUser("U0").getAverage(RideRole.PASSENGER), DELTA);
+	}
+
+	/**
+	 * Check that changes made concurrently to a user are all recorded in the journal, with each durability,
+	 * coalesced in a single record when flushed after the record of the registration,
+	 * and that they are durable when the future returned by sync completes
+	 * @param durability of changes
+	 * @throws Exception on backup I/O errors or interrupted threads
+	 */
+	@ParameterizedTest
+	@EnumSource(Durability.class)
+	public void testDurability(Durability durability) throws Exception {
+		Durability previous = Users.getDurability();
+		long flushPeriod = Users.getFlushPeriod();
+
+		try {
+			Users.setDurability(durability);
+			Users.setFlushPeriod(LONG_FLUSH_PERIOD);
+			users.close();
+			users = Users.getInstance();
+
+			var user = users.register(NICK, NAME);
+			var threads = new Thread[REPETITIONS];
+
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread(() -> {
+					for (int j = 0; j < REPETITIONS; j++) {
+						user.addStars(UserStars.FIVE_STARS, RideRole.DRIVER);
+					}
+				});
+				threads[i].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			users.sync().join();
+			assertEquals(2, UsersJournal.read(Users.getJournalFile(), 1).size());
+
+			users.close();
+			assertEquals(REPETITIONS * REPETITIONS,
+					Users.getInstance().getUser(NICK).getReviewsCount(RideRole.DRIVER));
+		} finally {
+			Users.setDurability(previous);
+			Users.setFlushPeriod(flushPeriod);
+		}
+	}
+
+	/**
+	 * Check that registrations are recorded in the journal when registered, without waiting for flushes,
+	 * and that they are durable when register returns with durability per operation
+	 * @throws Exception on backup I/O errors
+	 */
+	@Test
+	public void testRegisterPerOperation() throws Exception {
+		Durability previous = Users.getDurability();
+		long flushPeriod = Users.getFlushPeriod();
+
+		try {
+			Users.setDurability(Durability.PER_OPERATION);
+			Users.setFlushPeriod(LONG_FLUSH_PERIOD);
+			users.close();
+			users = Users.getInstance();
+
+			users.register(NICK, NAME);
+
+			var recorded = UsersJournal.read(Users.getJournalFile(), 1).stream().map(UsersChange::nick).toList();
+			assertEquals(List.of(NICK), recorded);
+		} finally {
+			Users.setDurability(previous);
+			Users.setFlushPeriod(flushPeriod);
+		}
+	}
+
+	/**
+	 * Check that only dirty users are recorded, by scheduled flushes, without waiting for sync
+	 * @throws Exception on backup I/O errors or interrupted threads
+	 */
+	@Test
+	public void testScheduledFlush() throws Exception {
+		long flushPeriod = Users.getFlushPeriod();
+
+		try {
+			Users.setFlushPeriod(SHORT_FLUSH_PERIOD);
+
+			users.register(NICK, NAME);
+			users.register(NICKS[1], NAMES[1]);
+			users.register(NICKS[2], NAMES[2]);
+			users.sync().join();
+
+			int registered = UsersJournal.read(Users.getJournalFile(), 1).size();
+			users.getUser(NICKS[1]).setPreferredMatch(PreferredMatch.CLOSER);
+
+			for (int wait = 0; UsersJournal.read(Users.getJournalFile(), 1).size() == registered && wait < REPETITIONS;
+				 wait++) {
+				Thread.sleep(SHORT_FLUSH_PERIOD * REPETITIONS);
+			}
+
+			var recorded = UsersJournal.read(Users.getJournalFile(), 1).stream().map(UsersChange::nick).toList();
+
+			assertAll(
+					() -> assertEquals(List.of(NICK, NICKS[1], NICKS[2]), recorded.subList(0, registered)),
+					() -> assertEquals(List.of(NICKS[1]), recorded.subList(registered, recorded.size())));
+		} finally {
+			Users.setFlushPeriod(flushPeriod);
+		}
+	}
+
 	/**
 	 * Class to execute tests from a different process.
 	 * A different process may inicialize users from a backup, if available.
@@ -177,8 +603,23 @@ public class UsersTest extends TestData {
 		 * @throws InterruptedException on waiting for process termination
 		 */
 		private static int execute(String nick, String name) throws IOException, InterruptedException {
+			return execute(OtherTester.class, nick, name);
+		}
+
+		/**
+		 * Execute the main in given class, for tests that must
+		 * be executed from a different process.
+		 *
+		 * @param main class with the main to execute
+		 * @param nick of user to test
+		 * @param name of user to test
+		 * @return process exit value
+		 * @throws IOException on process execution
+		 * @throws InterruptedException on waiting for process termination
+		 */
+		private static int execute(Class<?> main, String nick, String name) throws IOException, InterruptedException {
 			var runtime = Runtime.getRuntime();
-			var className = OtherTester.class.getName();
+			var className = main.getName();
 			var javaHome = System.getProperty("java.home");
 			var classPath = System.getProperty("java.class.path");
 			var separator = System.getProperty("file.separator");
@@ -204,6 +645,38 @@ public class UsersTest extends TestData {
 		}
 	}
 
+	/**
+	 * Class to change users from a different process, that exits without closing them.
+	 */
+	private static class ShutdownTester {
+		/**
+		 * Register a user and review it, exiting before the review is flushed.
+		 * @param args nick and name of user
+		 * @throws RideSharingAppException on backup I/O errors
+		 */
+		public static void main(String[] args) throws RideSharingAppException {
+			Users.setUsersFile(USERS_FILE);
+			Users.setFlushPeriod(LONG_FLUSH_PERIOD);
+
+			Users.getInstance().register(args[0], args[1]).addStars(UserStars.FIVE_STARS, RideRole.DRIVER);
+
+			System.exit(OtherTester.OK);
+		}
+	}
+
+	/**
+	 * Check that dirty users are flushed when the virtual machine shuts down, by running a different process
+	 * that changes a user and exits without closing users
+	 * @throws Exception on backup I/O errors or process execution
+	 */
+	@Test
+	public void testShutdown() throws Exception {
+		users.close();
+
+		assertEquals(OtherTester.OK, OtherTester.execute(ShutdownTester.class, NICK, NAME));
+		assertEquals(1, Users.getInstance().getUser(NICK).getReviewsCount(RideRole.DRIVER));
+	}
+
 	/**
 	 * Checks a user on the singleton backup.
 	 * Registers a user and launches a different process to check if it was correctly recorded.
@@ -216,6 +689,7 @@ public class UsersTest extends TestData {
 	@MethodSource("nickAndNameProvider")
 	public void testBackup(String nick,String name) throws RideSharingAppException {
 		users.register(nick,name);
+		users.sync().join();
 
 		assertAll(
 				() -> assertEquals(OtherTester.OK,OtherTester.execute(nick,name) ,